@@ -1,10 +1,17 @@
 plugins {
     id("java")
+    id("me.champeau.jmh") version "0.7.3"
 }
 
 group = "org.example"
 version = "1.0-SNAPSHOT"
 
+java {
+    toolchain {
+        languageVersion.set(JavaLanguageVersion.of(21))
+    }
+}
+
 repositories {
     mavenCentral()
 }
@@ -12,9 +19,48 @@ repositories {
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
-    implementation("org.postgresql:postgresql:42.5.0")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+    implementation("org.postgresql:postgresql:42.7.3")
 }
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+    // Тесты с базой пропускаются, если PostgreSQL недоступен
+    systemProperty("bench.user", findProperty("benchUser") ?: "postgres")
+    systemProperty("bench.password", findProperty("benchPassword") ?: "postgres")
+    System.getProperty("car_rental.primaryUrl")?.let { systemProperty("car_rental.primaryUrl", it) }
+}
+
+// -PjmhThreads принимает список: jmh берёт первое число, jmhSweep прогоняет все по очереди
+val jmhThreadCounts = (findProperty("jmhThreads") as String?)?.split(",")?.map { it.trim().toInt() } ?: listOf(1)
+
+jmh {
+    val threadCount = jmhThreadCounts.first()
+    threads.set(threadCount)
+    (findProperty("jmhTableSizes") as String?)?.let { sizes: String ->
+        benchmarkParameters.put("tableSize", objects.listProperty(String::class.java).value(sizes.split(",")))
+    }
+    (findProperty("jmhIncludes") as String?)?.let { includes.add(it) }
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results-t$threadCount.json"))
+    jvmArgsAppend.addAll(listOf(
+        "-Dbench.user=" + (findProperty("benchUser") ?: "postgres"),
+        "-Dbench.password=" + (findProperty("benchPassword") ?: "postgres")
+    ))
+}
+
+tasks.register<JavaExec>("jmhSweep") {
+    group = "benchmark"
+    description = "Runs JMH benchmarks once per thread count from -PjmhThreads"
+    val jmhJar = tasks.named<Jar>("jmhJar")
+    dependsOn(jmhJar)
+    classpath = files(jmhJar.flatMap { it.archiveFile })
+    mainClass.set("org.example.ThreadSweep")
+    systemProperty("bench.threads", jmhThreadCounts.joinToString(","))
+    systemProperty("bench.includes", findProperty("jmhIncludes") ?: "DatabaseBenchmark")
+    systemProperty("bench.resultsDir", layout.buildDirectory.dir("results/jmh").get().asFile.path)
+    findProperty("jmhTableSizes")?.let { systemProperty("bench.tableSizes", it) }
+    systemProperty("bench.user", findProperty("benchUser") ?: "postgres")
+    systemProperty("bench.password", findProperty("benchPassword") ?: "postgres")
+}
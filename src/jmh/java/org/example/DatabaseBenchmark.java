@@ -0,0 +1,171 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Бенчмарки методов Database на локальном PostgreSQL.
+// Число потоков задаётся -PjmhThreads, размеры таблицы — -PjmhTableSizes (например, 1000,100000).
+// Несколько чисел потоков за один запуск: gradle jmhSweep -PjmhThreads=1,8,32 (см. ThreadSweep).
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class DatabaseBenchmark {
+    private static final String BENCH_DATABASE = "car_rental_bench";
+    private static final int BRANDS = 20;
+    private static final int MODELS = 1000;
+    private static final int PAGE_SIZE = 200;
+    private static final int DELETE_BATCH = 1000;
+
+    @State(Scope.Benchmark)
+    public static class Fixture {
+        @Param({"1000", "100000", "1000000"})
+        public int tableSize;
+
+        Database db;
+        final AtomicLong uniqueModels = new AtomicLong();
+
+        // Пул не меньше числа потоков бенчмарка, иначе измерялось бы ожидание соединения, а не база
+        @Setup(Level.Trial)
+        public void setUp(BenchmarkParams params) throws Exception {
+            db = new Database(System.getProperty("bench.user", "postgres"),
+                    System.getProperty("bench.password", "postgres"), "admin",
+                    Math.max(params.getThreads(), ConnectionPool.DEFAULT_MAX_SIZE));
+            db.initializeSystemProcedures();
+            db.dropDatabase(BENCH_DATABASE);
+            db.createDatabase(BENCH_DATABASE);
+            db.initializeDatabase();
+            db.createTable();
+            db.importCars(generate(tableSize));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            db.close();
+        }
+
+        String randomModel() {
+            return modelName(ThreadLocalRandom.current().nextInt(MODELS));
+        }
+
+        int randomId() {
+            // Идентификаторы после импорта идут подряд с 1
+            return 1 + ThreadLocalRandom.current().nextInt(tableSize);
+        }
+    }
+
+    // Запас машин с уникальными моделями вставляется одним COPY перед итерацией, вне измеряемого времени:
+    // каждый вызов deleteCarByModel удаляет ровно одну из них
+    @State(Scope.Thread)
+    public static class UniqueCars {
+        final List<String> models = new ArrayList<>(DELETE_BATCH);
+        int next;
+
+        @Setup(Level.Iteration)
+        public void insert(Fixture fixture) throws Exception {
+            models.clear();
+            next = 0;
+            List<Car> cars = new ArrayList<>(DELETE_BATCH);
+            for (int i = 0; i < DELETE_BATCH; i++) {
+                String model = "bench-delete-" + fixture.uniqueModels.incrementAndGet();
+                models.add(model);
+                cars.add(Car.unsaved("Bench", model, 2020, new BigDecimal("1000.00")));
+            }
+            fixture.db.importCars(cars.iterator());
+        }
+
+        String next() {
+            return models.get(next++);
+        }
+    }
+
+    @Benchmark
+    public void insertCar(Fixture fixture) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        fixture.db.insertCar(brandName(random.nextInt(BRANDS)), fixture.randomModel(),
+                1990 + random.nextInt(35), BigDecimal.valueOf(random.nextInt(100_000, 10_000_000), 2));
+    }
+
+    @Benchmark
+    public void updateCar(Fixture fixture) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        fixture.db.updateCar(fixture.randomId(), brandName(random.nextInt(BRANDS)), fixture.randomModel(),
+                1990 + random.nextInt(35), BigDecimal.valueOf(random.nextInt(100_000, 10_000_000), 2));
+    }
+
+    @Benchmark
+    public List<Object[]> searchCar(Fixture fixture) throws Exception {
+        return fixture.db.searchCar(fixture.randomModel());
+    }
+
+    @Benchmark
+    public List<String> viewCars(Fixture fixture) throws Exception {
+        return fixture.db.viewCars();
+    }
+
+    @Benchmark
+    public List<Car> viewCarsPage(Fixture fixture) throws Exception {
+        return fixture.db.viewCarsPage(fixture.randomId() - 1, PAGE_SIZE);
+    }
+
+    // Разрушающая операция меряется пачками: итерация — ровно DELETE_BATCH вызовов на поток,
+    // результат — время пачки, на один вызов приходится score / DELETE_BATCH
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 3, batchSize = DELETE_BATCH)
+    @Measurement(iterations = 5, batchSize = DELETE_BATCH)
+    public void deleteCarByModel(Fixture fixture, UniqueCars cars) throws Exception {
+        fixture.db.deleteCarByModel(cars.next());
+    }
+
+    static String brandName(int i) {
+        return "Brand-" + i;
+    }
+
+    static String modelName(int i) {
+        return "Model-" + i;
+    }
+
+    static Iterator<Car> generate(int count) {
+        return new Iterator<>() {
+            private int produced = 0;
+
+            @Override
+            public boolean hasNext() {
+                return produced < count;
+            }
+
+            @Override
+            public Car next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int i = produced++;
+                return Car.unsaved(brandName(i % BRANDS), modelName(i % MODELS), 1990 + i % 35,
+                        BigDecimal.valueOf(100_000 + (i * 7919L) % 9_900_000, 2));
+            }
+        };
+    }
+}
@@ -0,0 +1,81 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Задержка повторяющихся insertCar/updateCar при разных prepareThreshold: 0 — серверная подготовка
+// выключена и каждый вызов заново разбирается и планируется, 1 — именованный оператор с первого вызова,
+// 2 — настройка Database по умолчанию, 5 — поздний переход.
+// Запуск: gradle jmh -PjmhIncludes=PrepareThresholdBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class PrepareThresholdBenchmark {
+    private static final String BENCH_DATABASE = "car_rental_bench_prepare";
+    private static final int TABLE_SIZE = 100_000;
+    private static final int BRANDS = 20;
+    private static final int MODELS = 1000;
+
+    @State(Scope.Benchmark)
+    public static class Fixture {
+        @Param({"0", "1", "2", "5"})
+        public String prepareThreshold;
+
+        Database db;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchmarkParams params) throws Exception {
+            // Database читает порог при создании пулов, поэтому свойство ставится до конструктора
+            System.setProperty("car_rental.prepareThreshold", prepareThreshold);
+            db = new Database(System.getProperty("bench.user", "postgres"),
+                    System.getProperty("bench.password", "postgres"), "admin",
+                    Math.max(params.getThreads(), ConnectionPool.DEFAULT_MAX_SIZE));
+            db.initializeSystemProcedures();
+            db.dropDatabase(BENCH_DATABASE);
+            db.createDatabase(BENCH_DATABASE);
+            db.initializeDatabase();
+            db.createTable();
+            db.importCars(DatabaseBenchmark.generate(TABLE_SIZE));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            db.close();
+        }
+    }
+
+    @Benchmark
+    public void insertCar(Fixture fixture) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        fixture.db.insertCar(DatabaseBenchmark.brandName(random.nextInt(BRANDS)),
+                DatabaseBenchmark.modelName(random.nextInt(MODELS)),
+                1990 + random.nextInt(35), BigDecimal.valueOf(random.nextInt(100_000, 10_000_000), 2));
+    }
+
+    @Benchmark
+    public void updateCar(Fixture fixture) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // Идентификаторы после импорта идут подряд с 1
+        fixture.db.updateCar(1 + random.nextInt(TABLE_SIZE), DatabaseBenchmark.brandName(random.nextInt(BRANDS)),
+                DatabaseBenchmark.modelName(random.nextInt(MODELS)),
+                1990 + random.nextInt(35), BigDecimal.valueOf(random.nextInt(100_000, 10_000_000), 2));
+    }
+}
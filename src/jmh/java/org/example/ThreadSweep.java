@@ -0,0 +1,36 @@
+package org.example;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Прогон бенчмарков для нескольких чисел потоков подряд: JMH задаёт потоки на весь запуск,
+// поэтому каждое число — отдельный запуск Runner со своим файлом результатов results-t<N>.json.
+// Запуск: gradle jmhSweep -PjmhThreads=1,8,32 [-PjmhTableSizes=1000,100000] [-PjmhIncludes=...]
+public final class ThreadSweep {
+    private ThreadSweep() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String include = System.getProperty("bench.includes", DatabaseBenchmark.class.getSimpleName());
+        String resultsDir = System.getProperty("bench.resultsDir", "build/results/jmh");
+        String tableSizes = System.getProperty("bench.tableSizes");
+        for (String count : System.getProperty("bench.threads", "1,4,16,64").split(",")) {
+            int threads = Integer.parseInt(count.trim());
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .addProfiler("gc")
+                    .jvmArgsAppend("-Dbench.user=" + System.getProperty("bench.user", "postgres"),
+                            "-Dbench.password=" + System.getProperty("bench.password", "postgres"))
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(resultsDir + "/results-t" + threads + ".json");
+            if (tableSizes != null) {
+                options.param("tableSize", tableSizes.split(","));
+            }
+            new Runner(options.build()).run();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.example;
+
+import javax.swing.SwingUtilities;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+public class AsyncDatabase implements AutoCloseable {
+    public static final Executor EDT = SwingUtilities::invokeLater;
+
+    @FunctionalInterface
+    public interface DatabaseCall<T> {
+        T call(Database db) throws Exception;
+    }
+
+    private final Database db;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<?>> latest = new ConcurrentHashMap<>();
+
+    public AsyncDatabase(Database db) {
+        this.db = db;
+    }
+
+    public Database getDatabase() {
+        return db;
+    }
+
+    public <T> CompletableFuture<T> submit(DatabaseCall<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        start(result, call);
+        return result;
+    }
+
+    private <T> void start(CompletableFuture<T> result, DatabaseCall<T> call) {
+        Future<?> task = executor.submit(() -> {
+            try {
+                result.complete(call.call(db));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+    }
+
+    // Одинаковые запросы, пришедшие пока первый ещё выполняется, получают его результат.
+    // Каждый вызывающий получает свою копию future, поэтому отмена одной не задевает остальных.
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> coalesce(String key, DatabaseCall<T> call) {
+        CompletableFuture<T> created = new CompletableFuture<>();
+        CompletableFuture<T> shared = (CompletableFuture<T>) inFlight.putIfAbsent(key, created);
+        if (shared == null) {
+            shared = created;
+            created.whenComplete((value, error) -> inFlight.remove(key, created));
+            start(created, call);
+        }
+        return shared.thenApply(value -> value);
+    }
+
+    // Новый запрос в канале отменяет предыдущий, если тот ещё не завершился
+    public <T> CompletableFuture<T> supersede(String channel, DatabaseCall<T> call) {
+        CompletableFuture<T> result = submit(call);
+        CompletableFuture<?> previous = latest.put(channel, result);
+        if (previous != null) {
+            previous.cancel(true);
+        }
+        result.whenComplete((value, error) -> latest.remove(channel, result));
+        return result;
+    }
+
+    public void cancel(String channel) {
+        CompletableFuture<?> previous = latest.remove(channel);
+        if (previous != null) {
+            previous.cancel(true);
+        }
+    }
+
+    public static <T> void onEdt(CompletableFuture<T> future, Consumer<T> onSuccess, Consumer<Throwable> onError) {
+        future.whenCompleteAsync((value, error) -> {
+            if (error == null) {
+                onSuccess.accept(value);
+                return;
+            }
+            Throwable cause = unwrap(error);
+            if (!(cause instanceof CancellationException)) {
+                onError.accept(cause);
+            }
+        }, EDT);
+    }
+
+    public static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        db.close();
+    }
+}
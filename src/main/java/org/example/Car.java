@@ -0,0 +1,18 @@
+package org.example;
+
+import java.math.BigDecimal;
+
+public record Car(int id, String brand, String model, int year, BigDecimal price) {
+
+    public static Car unsaved(String brand, String model, int year, BigDecimal price) {
+        return new Car(0, brand, model, year, price);
+    }
+
+    public boolean isSaved() {
+        return id > 0;
+    }
+
+    public Object[] toRow() {
+        return new Object[]{id, brand, model, year, price};
+    }
+}
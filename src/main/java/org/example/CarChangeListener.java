@@ -0,0 +1,75 @@
+package org.example;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+public class CarChangeListener implements AutoCloseable {
+    public static final String CHANNEL = "cars_changed";
+    private static final int POLL_TIMEOUT_MILLIS = 1000;
+    private static final long RECONNECT_DELAY_MILLIS = 5000;
+
+    private final String url;
+    private final Properties properties;
+    private final Runnable onChange;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile Connection conn;
+
+    public CarChangeListener(String url, Properties properties, Runnable onChange) {
+        this.url = url;
+        this.properties = properties;
+        this.onChange = onChange;
+        this.thread = Thread.ofVirtual().name("car-change-listener").start(this::run);
+    }
+
+    private void run() {
+        while (running) {
+            try (Connection listenConn = DriverManager.getConnection(url, properties)) {
+                conn = listenConn;
+                try (Statement stmt = listenConn.createStatement()) {
+                    stmt.execute("LISTEN " + CHANNEL);
+                }
+                // После (пере)подключения уведомления могли быть пропущены
+                onChange.run();
+                PGConnection pg = listenConn.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pg.getNotifications(POLL_TIMEOUT_MILLIS);
+                    if (notifications != null && notifications.length > 0) {
+                        onChange.run();
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    return;
+                }
+                System.err.println("Ошибка подписки на изменения cars: " + e.getMessage());
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            } finally {
+                conn = null;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+        Connection current = conn;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package org.example;
+
+import java.util.List;
+import java.util.Map;
+
+// cursor — снимок pg_snapshot в текстовом виде: следующая дельта содержит изменения транзакций,
+// невидимых в этом снимке. brandCounts и modelCounts — ненулевые изменения числа автомобилей
+// по марке и модели; null, если в дельте есть строки журнала без прежних значений (до схемы версии 7).
+public record CarDelta(String cursor, boolean reset, List<Car> added, List<Car> updated, List<Integer> removed,
+                       Map<String, Long> brandCounts, Map<String, Long> modelCounts) {
+
+    public record Baseline(int rowCount, String cursor) {
+        public boolean isTracked() {
+            return cursor != null;
+        }
+    }
+
+    public static CarDelta reset(String cursor) {
+        return new CarDelta(cursor, true, List.of(), List.of(), List.of(), null, null);
+    }
+
+    public boolean isEmpty() {
+        return !reset && added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+    }
+
+    public boolean isStructural() {
+        return !added.isEmpty() || !removed.isEmpty();
+    }
+}
@@ -0,0 +1,149 @@
+package org.example;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyOut;
+import org.postgresql.core.BaseConnection;
+import org.postgresql.core.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+// Выгрузка cars через COPY ... TO STDOUT: куски протокола пишутся прямо в файл,
+// поэтому память не зависит от размера таблицы.
+public class CarExporter {
+    public enum Format { CSV, BINARY }
+
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    private static final String COLUMNS = "id, brand, model, year, price";
+
+    private final Connection conn;
+
+    public record ExportResult(long rows, long bytes, Duration elapsed) {
+        public double rowsPerSecond() {
+            double seconds = elapsed.toNanos() / 1_000_000_000.0;
+            return seconds > 0 ? rows / seconds : rows;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("выгружено %d строк, %d байт, %.0f строк/с за %d мс",
+                    rows, bytes, rowsPerSecond(), elapsed.toMillis());
+        }
+    }
+
+    public CarExporter(Connection conn) {
+        this.conn = conn;
+    }
+
+    // Файл сначала пишется рядом во временный и переименовывается только после успешного COPY
+    public ExportResult export(CarQuery filter, Path target, Format format, boolean gzip) throws SQLException, IOException {
+        long start = System.nanoTime();
+        String sql = copySql(filter, format);
+        Path absolute = target.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".part");
+        try {
+            long rows;
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                if (gzip) {
+                    // Закрытие потока gzip закрывает и канал, поэтому сброс на диск делается до него
+                    try (GZIPOutputStream out = new GZIPOutputStream(Channels.newOutputStream(channel), GZIP_BUFFER_SIZE)) {
+                        rows = copyOut(sql, out::write);
+                        out.finish();
+                        channel.force(false);
+                    }
+                } else {
+                    rows = copyOut(sql, chunk -> {
+                        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                    });
+                    channel.force(false);
+                }
+            }
+            long bytes = Files.size(temp);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new ExportResult(rows, bytes, Duration.ofNanos(System.nanoTime() - start));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ChunkSink {
+        void write(byte[] chunk) throws IOException;
+    }
+
+    private long copyOut(String sql, ChunkSink sink) throws SQLException, IOException {
+        CopyOut copyOut = conn.unwrap(PGConnection.class).getCopyAPI().copyOut(sql);
+        try {
+            byte[] chunk;
+            while ((chunk = copyOut.readFromCopy()) != null) {
+                sink.write(chunk);
+            }
+            return copyOut.getHandledRowCount();
+        } finally {
+            if (copyOut.isActive()) {
+                copyOut.cancelCopy();
+            }
+        }
+    }
+
+    // COPY не принимает параметры, поэтому значения фильтра экранируются драйвером и встраиваются литералами
+    String copySql(CarQuery filter, Format format) throws SQLException {
+        String options = format == Format.CSV ? "(FORMAT csv, HEADER true)" : "(FORMAT binary)";
+        // COPY cars TO не читает секции секционированной таблицы, поэтому выгрузка всегда идёт через подзапрос
+        if (filter == null) {
+            return "COPY (SELECT " + COLUMNS + " FROM cars) TO STDOUT WITH " + options;
+        }
+
+        boolean standardConformingStrings = conn.unwrap(BaseConnection.class).getStandardConformingStrings();
+        StringBuilder sql = new StringBuilder("COPY (SELECT " + COLUMNS + " FROM cars WHERE TRUE");
+        if (filter.getBrand() != null) {
+            sql.append(" AND brand = ");
+            appendLiteral(sql, filter.getBrand(), standardConformingStrings);
+        }
+        if (filter.getModel() != null) {
+            sql.append(" AND model = ");
+            appendLiteral(sql, filter.getModel(), standardConformingStrings);
+        }
+        if (filter.getYearFrom() != null) {
+            sql.append(" AND year >= ").append(filter.getYearFrom().intValue());
+        }
+        if (filter.getYearTo() != null) {
+            sql.append(" AND year <= ").append(filter.getYearTo().intValue());
+        }
+        if (filter.getPriceFrom() != null) {
+            sql.append(" AND price >= ").append(filter.getPriceFrom().toPlainString());
+        }
+        if (filter.getPriceTo() != null) {
+            sql.append(" AND price <= ").append(filter.getPriceTo().toPlainString());
+        }
+        boolean limited = filter.getLimit() != Integer.MAX_VALUE;
+        if (limited || filter.getSortKey() != CarQuery.SortKey.ID || filter.isDescending()) {
+            sql.append(" ORDER BY ").append(filter.getSortKey().name().toLowerCase(Locale.ROOT))
+                    .append(filter.isDescending() ? " DESC" : "").append(", id");
+        }
+        if (limited) {
+            sql.append(" LIMIT ").append(filter.getLimit());
+        }
+        return sql.append(") TO STDOUT WITH ").append(options).toString();
+    }
+
+    private static void appendLiteral(StringBuilder sql, String value, boolean standardConformingStrings) throws SQLException {
+        sql.append(standardConformingStrings ? "'" : "E'");
+        Utils.escapeLiteral(sql, value, standardConformingStrings);
+        sql.append('\'');
+    }
+}
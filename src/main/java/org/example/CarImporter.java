@@ -0,0 +1,280 @@
+package org.example;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+public class CarImporter {
+    private static final int BATCH_SIZE = 1000;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_REJECTED_SAMPLES = 20;
+    private static final BigDecimal MAX_PRICE = new BigDecimal("100000000");
+
+    private static final String COPY_SQL = "COPY cars (brand, model, year, price) FROM STDIN WITH (FORMAT csv)";
+    private static final String INSERT_SQL = "INSERT INTO cars (brand, model, year, price) VALUES (?, ?, ?, ?)";
+
+    private final Connection conn;
+    private final boolean useCopy;
+    private long rejected = 0;
+    private final List<String> rejectedSamples = new ArrayList<>();
+
+    public record ImportResult(long imported, long rejected, List<String> rejectedSamples, Duration elapsed) {
+        public double rowsPerSecond() {
+            double seconds = elapsed.toNanos() / 1_000_000_000.0;
+            return seconds > 0 ? imported / seconds : imported;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("импортировано %d, отклонено %d, %.0f строк/с за %d мс",
+                    imported, rejected, rowsPerSecond(), elapsed.toMillis());
+        }
+    }
+
+    public CarImporter(Connection conn) throws SQLException {
+        this(conn, conn.isWrapperFor(PGConnection.class));
+    }
+
+    public CarImporter(Connection conn, boolean useCopy) {
+        this.conn = conn;
+        this.useCopy = useCopy;
+    }
+
+    public ImportResult importCsv(BufferedReader reader) throws SQLException, IOException {
+        CsvCarIterator cars = new CsvCarIterator(reader);
+        try {
+            return importCars(cars);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public ImportResult importCars(Iterator<Car> cars) throws SQLException {
+        long start = System.nanoTime();
+        long imported = useCopy ? copy(cars) : insertBatched(cars);
+        return new ImportResult(imported, rejected, List.copyOf(rejectedSamples), Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private long copy(Iterator<Car> cars) throws SQLException {
+        CopyIn copyIn = conn.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL);
+        try {
+            StringBuilder buffer = new StringBuilder(COPY_BUFFER_SIZE + 1024);
+            while (cars.hasNext()) {
+                Car car = cars.next();
+                if (!accept(car)) {
+                    continue;
+                }
+                appendCsv(buffer, car);
+                if (buffer.length() >= COPY_BUFFER_SIZE) {
+                    flush(copyIn, buffer);
+                }
+            }
+            flush(copyIn, buffer);
+            return copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    private static void flush(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+        if (buffer.length() == 0) {
+            return;
+        }
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+
+    private long insertBatched(Iterator<Car> cars) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        long imported = 0;
+        try (PreparedStatement stmt = conn.prepareStatement(INSERT_SQL)) {
+            int pending = 0;
+            while (cars.hasNext()) {
+                Car car = cars.next();
+                if (!accept(car)) {
+                    continue;
+                }
+                stmt.setString(1, car.brand());
+                stmt.setString(2, car.model());
+                stmt.setInt(3, car.year());
+                stmt.setBigDecimal(4, car.price());
+                stmt.addBatch();
+                if (++pending == BATCH_SIZE) {
+                    stmt.executeBatch();
+                    imported += pending;
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                stmt.executeBatch();
+                imported += pending;
+            }
+            conn.commit();
+            return imported;
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    private boolean accept(Car car) {
+        String problem = validate(car);
+        if (problem == null) {
+            return true;
+        }
+        reject(problem + ": " + car);
+        return false;
+    }
+
+    private void reject(String reason) {
+        rejected++;
+        if (rejectedSamples.size() < MAX_REJECTED_SAMPLES) {
+            rejectedSamples.add(reason);
+        }
+    }
+
+    static String validate(Car car) {
+        if (car == null) {
+            return "пустая запись";
+        }
+        if (car.brand() == null || car.brand().isBlank()) {
+            return "не указана марка";
+        }
+        if (car.model() == null || car.model().isBlank()) {
+            return "не указана модель";
+        }
+        if (car.price() == null || car.price().signum() < 0 || car.price().abs().compareTo(MAX_PRICE) >= 0) {
+            return "некорректная цена";
+        }
+        return null;
+    }
+
+    private static void appendCsv(StringBuilder out, Car car) {
+        appendQuoted(out, car.brand());
+        out.append(',');
+        appendQuoted(out, car.model());
+        out.append(',').append(car.year()).append(',').append(car.price().toPlainString()).append('\n');
+    }
+
+    static void appendQuoted(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        out.append('"');
+    }
+
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("незакрытая кавычка");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private class CsvCarIterator implements Iterator<Car> {
+        private final BufferedReader reader;
+        private long lineNumber = 0;
+        private Car next;
+
+        CsvCarIterator(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                String line;
+                try {
+                    line = reader.readLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (line == null) {
+                    return false;
+                }
+                lineNumber++;
+                if (line.isBlank() || (lineNumber == 1 && line.trim().toLowerCase().startsWith("brand"))) {
+                    continue;
+                }
+                next = parse(line);
+            }
+            return true;
+        }
+
+        @Override
+        public Car next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Car car = next;
+            next = null;
+            return car;
+        }
+
+        private Car parse(String line) {
+            try {
+                List<String> fields = parseCsvLine(line);
+                if (fields.size() != 4) {
+                    throw new IllegalArgumentException("ожидалось 4 поля, получено " + fields.size());
+                }
+                Car car = Car.unsaved(fields.get(0).trim(), fields.get(1).trim(),
+                        Integer.parseInt(fields.get(2).trim()), new BigDecimal(fields.get(3).trim()));
+                String problem = validate(car);
+                if (problem != null) {
+                    throw new IllegalArgumentException(problem);
+                }
+                return car;
+            } catch (IllegalArgumentException e) {
+                reject("строка " + lineNumber + ": " + e.getMessage());
+                return null;
+            }
+        }
+    }
+}
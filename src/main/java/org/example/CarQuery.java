@@ -0,0 +1,125 @@
+package org.example;
+
+import java.math.BigDecimal;
+import java.util.Comparator;
+
+public class CarQuery {
+    public enum SortKey { ID, YEAR, PRICE }
+
+    private Integer yearFrom;
+    private Integer yearTo;
+    private BigDecimal priceFrom;
+    private BigDecimal priceTo;
+    private String brand;
+    private String model;
+    private SortKey sortKey = SortKey.ID;
+    private boolean descending = false;
+    private int limit = Integer.MAX_VALUE;
+
+    public CarQuery yearBetween(Integer from, Integer to) {
+        this.yearFrom = from;
+        this.yearTo = to;
+        return this;
+    }
+
+    public CarQuery priceBetween(BigDecimal from, BigDecimal to) {
+        this.priceFrom = from;
+        this.priceTo = to;
+        return this;
+    }
+
+    public CarQuery brand(String brand) {
+        this.brand = brand;
+        return this;
+    }
+
+    public CarQuery model(String model) {
+        this.model = model;
+        return this;
+    }
+
+    public CarQuery sortBy(SortKey key, boolean descending) {
+        this.sortKey = key;
+        this.descending = descending;
+        return this;
+    }
+
+    public CarQuery limit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Лимит не может быть отрицательным: " + limit);
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    public Integer getYearFrom() {
+        return yearFrom;
+    }
+
+    public Integer getYearTo() {
+        return yearTo;
+    }
+
+    public BigDecimal getPriceFrom() {
+        return priceFrom;
+    }
+
+    public BigDecimal getPriceTo() {
+        return priceTo;
+    }
+
+    public String getBrand() {
+        return brand;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public SortKey getSortKey() {
+        return sortKey;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    // Порядок выдачи: ключ сортировки, при равенстве — id, оба в одном направлении,
+    // поэтому позиция страницы однозначно задаётся последней строкой предыдущей
+    public Comparator<Car> comparator() {
+        Comparator<Car> byKey = switch (sortKey) {
+            case ID -> Comparator.comparingInt(Car::id);
+            case YEAR -> Comparator.comparingInt(Car::year).thenComparingInt(Car::id);
+            case PRICE -> Comparator.comparing(Car::price).thenComparingInt(Car::id);
+        };
+        return descending ? byKey.reversed() : byKey;
+    }
+
+    // Ключ кэша перечисляет все поля, влияющие на результат, и не зависит от toString,
+    // который пишется для людей. Значения берутся в кавычки, поэтому строка "a|b" не совпадёт с парой "a", "b",
+    // а null — с пустой строкой; цены нормализуются, так как 10 и 10.00 в SQL отбирают одно и то же.
+    public String cacheKey() {
+        return String.join("|", keyPart(brand), keyPart(model), keyPart(yearFrom), keyPart(yearTo),
+                keyPart(priceFrom == null ? null : priceFrom.stripTrailingZeros().toPlainString()),
+                keyPart(priceTo == null ? null : priceTo.stripTrailingZeros().toPlainString()),
+                sortKey.name(), descending ? "desc" : "asc", Integer.toString(limit));
+    }
+
+    private static String keyPart(Object value) {
+        if (value == null) {
+            return "-";
+        }
+        return "'" + value.toString().replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+
+    @Override
+    public String toString() {
+        return "CarQuery[brand=" + brand + ", model=" + model + ", year=" + yearFrom + ".." + yearTo
+                + ", price=" + priceFrom + ".." + priceTo + ", sort=" + sortKey + (descending ? " desc" : "")
+                + ", limit=" + limit + "]";
+    }
+}
@@ -1,20 +1,42 @@
 package org.example;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.math.BigDecimal;
-import java.sql.SQLException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class CarRentalApp extends JFrame {
-    private Database db;
+    private static final int FILTER_PAGE_SIZE = 100;
+    private static final int RESULT_CACHE_SIZE = 1000;
+    private static final Duration RESULT_CACHE_TTL = Duration.ofSeconds(30);
+    private static final int DIAGNOSTICS_REFRESH_MILLIS = 1000;
+    private static final int TENANT_PARALLELISM = 4;
+    private static final int AUTOCOMPLETE_DELAY_MILLIS = 150;
+    private static final int AUTOCOMPLETE_LIMIT = 10;
+    private static final int DIAGNOSTICS_TAB = 1;
+    private static final int STATS_TAB = 2;
+    private static final String[] BRAND_STATS_COLUMNS = {"Марка", "Автомобилей", "Средняя цена", "Мин. цена", "Макс. цена"};
+    private static final String[] YEAR_STATS_COLUMNS = {"Год", "Автомобилей", "Средняя цена", "Мин. цена", "Макс. цена"};
+
+    private AsyncDatabase async;
     private String currentRole;
 
     private JPanel loginPanel;
     private JTextField usernameField;
     private JPasswordField passwordField;
     private JComboBox<String> roleComboBox;
+    private JCheckBox templateCheckBox;
     private JButton loginButton;
 
     private JPanel mainPanel;
@@ -25,7 +47,9 @@ public class CarRentalApp extends JFrame {
     private JButton createDbButton;
     private JButton dropDbButton;
     private JButton createTableButton;
+    private JCheckBox partitionedCheckBox;
     private JButton clearTableButton;
+    private JButton importCsvButton;
     private JTextField brandField;
     private JTextField modelField;
     private JTextField yearField;
@@ -39,13 +63,45 @@ public class CarRentalApp extends JFrame {
     private JButton updateCarButton;
     private JTextField deleteModelField;
     private JButton deleteCarButton;
+    private JCheckBox chunkedDeleteCheckBox;
+    private JButton stopDeleteButton;
+    private JButton tenantsInitButton;
+    private JButton tenantsCreateTableButton;
+    private JButton tenantsCountButton;
     private JTable carTable;
     private DefaultTableModel tableModel;
+    private CarTableModel carTableModel;
+    private CarChangeListener changeSubscription;
+    private String subscribedDatabase;
+    private JTabbedPane tabs;
+    private JTextArea diagnosticsArea;
+    private Timer diagnosticsTimer;
+    private JLabel fleetTotalLabel;
+    private DefaultTableModel brandStatsModel;
+    private DefaultTableModel yearStatsModel;
 
     private JPanel commonPanel;
     private JTextField searchModelField;
+    private JPopupMenu suggestionsPopup;
+    private Timer autocompleteTimer;
+    private SuggestionIndex suggestionIndex;
+    private boolean applyingSuggestion = false;
+    private boolean suggestionIndexFailed = false;
     private JButton searchCarButton;
     private JButton viewCarsButton;
+    private JCheckBox snapshotCheckBox;
+    private CarSnapshot snapshot;
+    private JTextField filterBrandField;
+    private JTextField filterModelField;
+    private JTextField filterYearFromField;
+    private JTextField filterYearToField;
+    private JTextField filterPriceFromField;
+    private JTextField filterPriceToField;
+    private JButton filterButton;
+    private JButton filterNextButton;
+    private JButton exportButton;
+    private CarQuery lastFilter;
+    private Car lastFilterCar;
 
     public CarRentalApp() {
         setTitle("Car Rental App");
@@ -55,12 +111,23 @@ public class CarRentalApp extends JFrame {
 
         initLoginPanel();
 
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                stopDiagnostics();
+                unsubscribeFromChanges();
+                if (async != null) {
+                    async.close();
+                }
+            }
+        });
+
         add(loginPanel);
         setVisible(true);
     }
 
     private void initLoginPanel() {
-        loginPanel = new JPanel(new GridLayout(4, 2, 10, 10));
+        loginPanel = new JPanel(new GridLayout(5, 2, 10, 10));
         loginPanel.setBorder(BorderFactory.createTitledBorder("Вход в систему"));
 
         loginPanel.add(new JLabel("Username:"));
@@ -75,6 +142,10 @@ public class CarRentalApp extends JFrame {
         roleComboBox = new JComboBox<>(new String[] { "admin", "guest" });
         loginPanel.add(roleComboBox);
 
+        loginPanel.add(new JLabel("Новые БД:"));
+        templateCheckBox = new JCheckBox("создавать из шаблона", true);
+        loginPanel.add(templateCheckBox);
+
         loginButton = new JButton("Войти");
         loginPanel.add(loginButton);
 
@@ -85,40 +156,77 @@ public class CarRentalApp extends JFrame {
 
             currentRole = role;
 
-            db = new Database(username, password, role);
+            stopDiagnostics();
+            unsubscribeFromChanges();
+            if (async != null) {
+                async.close();
+            }
+            Database database = new Database(username, password, role);
+            database.enableCache(RESULT_CACHE_SIZE, RESULT_CACHE_TTL);
+            async = new AsyncDatabase(database);
 
             if (role.equals("admin")) {
                 String dbName = JOptionPane.showInputDialog(this, "Введите имя новой базы данных:", "Создание БД",
                         JOptionPane.QUESTION_MESSAGE);
 
                 if (dbName != null && !dbName.trim().isEmpty()) {
-                    try {
-                        db.createDatabase(dbName);
-                        db.initializeDatabase();
-                    } catch (Exception ex) {
+                    loginButton.setEnabled(false);
+                    boolean fromTemplate = templateCheckBox.isSelected();
+                    AsyncDatabase.onEdt(async.submit(db -> {
+                        createDatabase(db, dbName, fromTemplate);
+                        return null;
+                    }), ignored -> showMainPanel(), ex -> {
+                        loginButton.setEnabled(true);
                         JOptionPane.showMessageDialog(this, "Ошибка создания/инициализации БД: " + ex.getMessage(),
                                 "Ошибка", JOptionPane.ERROR_MESSAGE);
-                        return;
-                    }
+                    });
+                    return;
                 }
             }
 
-            initMainPanel();
-            remove(loginPanel);
-            add(mainPanel);
-            revalidate();
-            repaint();
+            showMainPanel();
         });
 
     }
 
+    // Из шаблона база получает процедуры сразу; иначе — через dblink и прогон скрипта.
+    // Таблица cars в обоих случаях создаётся отдельно, обычной или секционированной
+    private static void createDatabase(Database db, String dbName, boolean fromTemplate) throws Exception {
+        if (fromTemplate) {
+            db.provisionDatabase(dbName);
+        } else {
+            db.initializeSystemProcedures();
+            db.createDatabase(dbName);
+            db.initializeDatabase();
+        }
+    }
+
+    private void showMainPanel() {
+        initMainPanel();
+        remove(loginPanel);
+        add(mainPanel);
+        revalidate();
+        repaint();
+    }
+
     private void initMainPanel() {
         mainPanel = new JPanel(new BorderLayout());
 
-        tableModel = new DefaultTableModel(new String[]{"ID", "Brand", "Model", "Year", "Price"}, 0);
+        tableModel = new DefaultTableModel(CarTableModel.COLUMNS, 0);
+        carTableModel = new CarTableModel(async, ex ->
+                JOptionPane.showMessageDialog(this, "Ошибка при загрузке данных: " + ex.getMessage()));
         carTable = new JTable(tableModel);
         JScrollPane tableScrollPane = new JScrollPane(carTable);
-        mainPanel.add(tableScrollPane, BorderLayout.CENTER);
+
+        diagnosticsArea = new JTextArea();
+        diagnosticsArea.setEditable(false);
+        diagnosticsArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        tabs = new JTabbedPane();
+        tabs.addTab("Автомобили", tableScrollPane);
+        tabs.addTab("Диагностика", new JScrollPane(diagnosticsArea));
+        tabs.addTab("Статистика", createStatsPanel());
+        mainPanel.add(tabs, BorderLayout.CENTER);
+        startDiagnostics();
 
         outputArea = new JTextArea();
         outputArea.setEditable(false);
@@ -144,8 +252,12 @@ public class CarRentalApp extends JFrame {
         JPanel tablePanel = new JPanel(new FlowLayout());
         createTableButton = new JButton("Создать таблицу");
         tablePanel.add(createTableButton);
+        partitionedCheckBox = new JCheckBox("Секции по годам");
+        tablePanel.add(partitionedCheckBox);
         clearTableButton = new JButton("Очистить таблицу");
         tablePanel.add(clearTableButton);
+        importCsvButton = new JButton("Импорт CSV");
+        tablePanel.add(importCsvButton);
         adminPanel.add(tablePanel);
 
         JPanel insertPanel = new JPanel(new FlowLayout());
@@ -191,25 +303,81 @@ public class CarRentalApp extends JFrame {
         deletePanel.add(deleteModelField);
         deleteCarButton = new JButton("Удалить автомобиль по Model");
         deletePanel.add(deleteCarButton);
+        chunkedDeleteCheckBox = new JCheckBox("Порциями");
+        chunkedDeleteCheckBox.setToolTipText("Удалять и очищать таблицу короткими транзакциями с паузами");
+        deletePanel.add(chunkedDeleteCheckBox);
+        stopDeleteButton = new JButton("Остановить");
+        stopDeleteButton.setEnabled(false);
+        deletePanel.add(stopDeleteButton);
         adminPanel.add(deletePanel);
 
+        JPanel tenantsPanel = new JPanel(new FlowLayout());
+        tenantsPanel.add(new JLabel("Все БД филиалов:"));
+        tenantsInitButton = new JButton("Обновить процедуры");
+        tenantsPanel.add(tenantsInitButton);
+        tenantsCreateTableButton = new JButton("Создать таблицу");
+        tenantsPanel.add(tenantsCreateTableButton);
+        tenantsCountButton = new JButton("Число автомобилей");
+        tenantsPanel.add(tenantsCountButton);
+        adminPanel.add(tenantsPanel);
+
         if (currentRole.equals("guest")) {
             createDbButton.setEnabled(false);
             dropDbButton.setEnabled(false);
+            importCsvButton.setEnabled(false);
             insertCarButton.setEnabled(false);
             updateCarButton.setEnabled(false);
             deleteCarButton.setEnabled(false);
+            chunkedDeleteCheckBox.setEnabled(false);
+            tenantsInitButton.setEnabled(false);
+            tenantsCreateTableButton.setEnabled(false);
+            tenantsCountButton.setEnabled(false);
         }
 
-        commonPanel = new JPanel(new FlowLayout());
+        commonPanel = new JPanel();
+        commonPanel.setLayout(new BoxLayout(commonPanel, BoxLayout.Y_AXIS));
         commonPanel.setBorder(BorderFactory.createTitledBorder("Общие операции"));
-        commonPanel.add(new JLabel("Search Model:"));
+
+        JPanel searchPanel = new JPanel(new FlowLayout());
+        searchPanel.add(new JLabel("Search Model:"));
         searchModelField = new JTextField(8);
-        commonPanel.add(searchModelField);
+        searchPanel.add(searchModelField);
+        installAutocomplete();
         searchCarButton = new JButton("Найти автомобиль");
-        commonPanel.add(searchCarButton);
+        searchPanel.add(searchCarButton);
         viewCarsButton = new JButton("Показать все автомобили");
-        commonPanel.add(viewCarsButton);
+        searchPanel.add(viewCarsButton);
+        snapshotCheckBox = new JCheckBox("Поиск в памяти");
+        searchPanel.add(snapshotCheckBox);
+        commonPanel.add(searchPanel);
+
+        JPanel filterPanel = new JPanel(new FlowLayout());
+        filterPanel.add(new JLabel("Brand:"));
+        filterBrandField = new JTextField(6);
+        filterPanel.add(filterBrandField);
+        filterPanel.add(new JLabel("Model:"));
+        filterModelField = new JTextField(6);
+        filterPanel.add(filterModelField);
+        filterPanel.add(new JLabel("Year:"));
+        filterYearFromField = new JTextField(4);
+        filterPanel.add(filterYearFromField);
+        filterPanel.add(new JLabel("–"));
+        filterYearToField = new JTextField(4);
+        filterPanel.add(filterYearToField);
+        filterPanel.add(new JLabel("Price:"));
+        filterPriceFromField = new JTextField(5);
+        filterPanel.add(filterPriceFromField);
+        filterPanel.add(new JLabel("–"));
+        filterPriceToField = new JTextField(5);
+        filterPanel.add(filterPriceToField);
+        filterButton = new JButton("Фильтр");
+        filterPanel.add(filterButton);
+        filterNextButton = new JButton("Далее");
+        filterNextButton.setEnabled(false);
+        filterPanel.add(filterNextButton);
+        exportButton = new JButton("Экспорт");
+        filterPanel.add(exportButton);
+        commonPanel.add(filterPanel);
 
         operationsPanel.add(adminPanel);
         operationsPanel.add(commonPanel);
@@ -218,42 +386,62 @@ public class CarRentalApp extends JFrame {
 
         createDbButton.addActionListener(e -> {
             String dbName = dbNameField.getText();
-            try {
-                db.createDatabase(dbName);
-                outputArea.append("База данных " + dbName + " успешно создана.\n");
-            } catch (Exception ex) {
-                outputArea.append("Ошибка при создании БД: " + ex.getMessage() + "\n");
-            }
+            boolean fromTemplate = templateCheckBox.isSelected();
+            runAsync(db -> {
+                createDatabase(db, dbName, fromTemplate);
+                return null;
+            }, ignored -> outputArea.append("База данных " + dbName + " успешно создана.\n"),
+                    "Ошибка при создании БД: ");
         });
 
         dropDbButton.addActionListener(e -> {
             String dbName = dbNameField.getText();
-            try {
+            runAsync(db -> {
                 db.dropDatabase(dbName);
-                outputArea.append("База данных " + dbName + " успешно удалена.\n");
-            } catch (Exception ex) {
-                outputArea.append("Ошибка при удалении БД: " + ex.getMessage() + "\n");
-            }
+                return null;
+            }, ignored -> outputArea.append("База данных " + dbName + " успешно удалена.\n"),
+                    "Ошибка при удалении БД: ");
         });
 
         createTableButton.addActionListener(e -> {
-            try {
-                db.createTable();
-                outputArea.append("Таблица создана успешно.\n");
-            } catch (Exception ex) {
-                outputArea.append("Ошибка при создании таблицы: " + ex.getMessage() + "\n");
-            }
+            boolean partitioned = partitionedCheckBox.isSelected();
+            runAsync(db -> {
+                db.createTable(false, partitioned);
+                return null;
+            }, ignored -> outputArea.append("Таблица создана успешно.\n"),
+                    "Ошибка при создании таблицы: ");
         });
 
         clearTableButton.addActionListener(e -> {
-            try {
+            if (chunkedDeleteCheckBox.isSelected()) {
+                runChunkedDelete("Очистка таблицы", (db, listener) -> db.clearTable(ChunkedDeleter.Options.defaults(), listener));
+                return;
+            }
+            runAsync(db -> {
                 db.clearTable();
+                return null;
+            }, ignored -> {
                 outputArea.append("Таблица очищена успешно.\n");
 
-                loadCarData();
-            } catch (Exception ex) {
-                outputArea.append("Ошибка при очистке таблицы: " + ex.getMessage() + "\n");
+                reloadCarData();
+            }, "Ошибка при очистке таблицы: ");
+        });
+
+        importCsvButton.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setFileFilter(new FileNameExtensionFilter("CSV (brand,model,year,price)", "csv"));
+            if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
             }
+            Path csv = chooser.getSelectedFile().toPath();
+            runAsync(db -> db.importCars(csv), result -> {
+                outputArea.append("Импорт CSV: " + result + "\n");
+                for (String rejected : result.rejectedSamples()) {
+                    outputArea.append("  отклонено — " + rejected + "\n");
+                }
+
+                reloadCarData();
+            }, "Ошибка при импорте CSV: ");
         });
 
         insertCarButton.addActionListener(e -> {
@@ -261,14 +449,14 @@ public class CarRentalApp extends JFrame {
             String model = modelField.getText();
             int year = Integer.parseInt(yearField.getText());
             BigDecimal price = new BigDecimal(priceField.getText());
-            try {
+            runAsync(db -> {
                 db.insertCar(brand, model, year, price);
+                return null;
+            }, ignored -> {
                 outputArea.append("Автомобиль добавлен успешно.\n");
 
-                loadCarData();
-            } catch (Exception ex) {
-                outputArea.append("Ошибка при добавлении автомобиля: " + ex.getMessage() + "\n");
-            }
+                reloadCarData();
+            }, "Ошибка при добавлении автомобиля: ");
         });
 
         updateCarButton.addActionListener(e -> {
@@ -277,29 +465,54 @@ public class CarRentalApp extends JFrame {
             String model = updateModelField.getText();
             int year = Integer.parseInt(updateYearField.getText());
             BigDecimal price = new BigDecimal(updatePriceField.getText());
-            try {
+            runAsync(db -> {
                 db.updateCar(id, brand, model, year, price);
+                return null;
+            }, ignored -> {
                 outputArea.append("Автомобиль обновлён успешно.\n");
 
-                loadCarData();
-            } catch (Exception ex) {
-                outputArea.append("Ошибка при обновлении автомобиля: " + ex.getMessage() + "\n");
-            }
+                reloadCarData();
+            }, "Ошибка при обновлении автомобиля: ");
         });
 
 
         deleteCarButton.addActionListener(e -> {
             String model = deleteModelField.getText();
-            try {
+            if (chunkedDeleteCheckBox.isSelected()) {
+                runChunkedDelete("Удаление model = " + model,
+                        (db, listener) -> db.deleteCarByModel(model, ChunkedDeleter.Options.defaults(), listener));
+                return;
+            }
+            runAsync(db -> {
                 db.deleteCarByModel(model);
+                return null;
+            }, ignored -> {
                 outputArea.append("Автомобиль(и) с model = " + model + " удалены успешно.\n");
 
-                loadCarData();
-            } catch (Exception ex) {
-                outputArea.append("Ошибка при удалении автомобиля: " + ex.getMessage() + "\n");
-            }
+                reloadCarData();
+            }, "Ошибка при удалении автомобиля: ");
+        });
+
+        stopDeleteButton.addActionListener(e -> {
+            // Текущая порция дорабатывает, уже удалённые строки не возвращаются
+            async.cancel("delete");
+            stopDeleteButton.setEnabled(false);
+            outputArea.append("Удаление остановлено.\n");
+            reloadCarData();
         });
 
+        tenantsInitButton.addActionListener(e -> runAcrossTenants("Обновление процедур", db -> {
+            db.initializeDatabase();
+            return null;
+        }));
+
+        tenantsCreateTableButton.addActionListener(e -> runAcrossTenants("Создание таблицы", db -> {
+            db.createTable();
+            return null;
+        }));
+
+        tenantsCountButton.addActionListener(e -> runAcrossTenants("Число автомобилей", Database::countCars));
+
         searchCarButton.addActionListener(e -> {
             String model = searchModelField.getText().trim();
             if (!model.isEmpty()) {
@@ -310,33 +523,379 @@ public class CarRentalApp extends JFrame {
         });
 
         viewCarsButton.addActionListener(e -> loadCarData());
+
+        filterButton.addActionListener(e -> {
+            try {
+                lastFilter = new CarQuery()
+                        .brand(textOrNull(filterBrandField))
+                        .model(textOrNull(filterModelField))
+                        .yearBetween(intOrNull(filterYearFromField), intOrNull(filterYearToField))
+                        .priceBetween(decimalOrNull(filterPriceFromField), decimalOrNull(filterPriceToField))
+                        .limit(FILTER_PAGE_SIZE);
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(this, "Некорректное число в фильтре: " + ex.getMessage());
+                return;
+            }
+            loadFilteredPage(null);
+        });
+
+        filterNextButton.addActionListener(e -> loadFilteredPage(lastFilterCar));
+
+        exportButton.addActionListener(e -> {
+            CarQuery filter;
+            try {
+                filter = exportFilter();
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(this, "Некорректное число в фильтре: " + ex.getMessage());
+                return;
+            }
+            JFileChooser chooser = new JFileChooser();
+            chooser.addChoosableFileFilter(new FileNameExtensionFilter("CSV (.csv, .csv.gz)", "csv", "gz"));
+            chooser.addChoosableFileFilter(new FileNameExtensionFilter("PostgreSQL COPY binary (.bin, .bin.gz)", "bin", "gz"));
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            Path target = chooser.getSelectedFile().toPath();
+            String name = target.getFileName().toString().toLowerCase();
+            boolean gzip = name.endsWith(".gz");
+            CarExporter.Format format = name.endsWith(".bin") || name.endsWith(".bin.gz")
+                    ? CarExporter.Format.BINARY : CarExporter.Format.CSV;
+            exportButton.setEnabled(false);
+            AsyncDatabase.onEdt(async.submit(db -> db.exportCars(filter, target, format, gzip)), result -> {
+                exportButton.setEnabled(true);
+                outputArea.append("Экспорт в " + target + ": " + result + "\n");
+            }, ex -> {
+                exportButton.setEnabled(true);
+                outputArea.append("Ошибка при экспорте: " + ex.getMessage() + "\n");
+            });
+        });
+
+        snapshotCheckBox.addActionListener(e -> {
+            if (snapshotCheckBox.isSelected()) {
+                refreshSnapshot();
+            } else {
+                async.cancel("snapshot");
+                snapshot = null;
+            }
+        });
+    }
+
+    private <T> void runAsync(AsyncDatabase.DatabaseCall<T> call, Consumer<T> onSuccess, String errorPrefix) {
+        AsyncDatabase.onEdt(async.submit(call), onSuccess,
+                ex -> outputArea.append(errorPrefix + ex.getMessage() + "\n"));
+    }
+
+    @FunctionalInterface
+    private interface ChunkedDeleteCall {
+        ChunkedDeleter.Progress run(Database db, Consumer<ChunkedDeleter.Progress> listener) throws Exception;
+    }
+
+    // Прогресс приходит из рабочего потока после каждой порции; в журнал пишется не чаще раза в секунду
+    private void runChunkedDelete(String title, ChunkedDeleteCall call) {
+        stopDeleteButton.setEnabled(true);
+        long[] lastReport = { 0 };
+        Consumer<ChunkedDeleter.Progress> listener = progress -> {
+            long now = System.nanoTime();
+            if (now - lastReport[0] >= 1_000_000_000L) {
+                lastReport[0] = now;
+                SwingUtilities.invokeLater(() -> outputArea.append(title + ": " + progress + "\n"));
+            }
+        };
+        AsyncDatabase.onEdt(async.supersede("delete", db -> call.run(db, listener)), progress -> {
+            stopDeleteButton.setEnabled(false);
+            outputArea.append(title + ": " + progress + "\n");
+            reloadCarData();
+        }, ex -> {
+            stopDeleteButton.setEnabled(false);
+            outputArea.append(title + ": ошибка — " + ex.getMessage() + "\n");
+            reloadCarData();
+        });
+    }
+
+    private <T> void runAcrossTenants(String title, Database.TenantCall<T> call) {
+        outputArea.append(title + " во всех БД филиалов...\n");
+        runAsync(db -> db.forEachTenant(TENANT_PARALLELISM, call), results -> {
+            long failed = results.stream().filter(r -> !r.isSuccess()).count();
+            for (TenantResult<T> result : results) {
+                outputArea.append("  " + result + "\n");
+            }
+            outputArea.append(title + ": баз " + results.size() + ", ошибок " + failed + ".\n");
+        }, title + ": ошибка — ");
+    }
+
+    private void startDiagnostics() {
+        stopDiagnostics();
+        // Метрики уже в памяти, поэтому отчёт строится прямо на EDT и только пока вкладка открыта
+        diagnosticsTimer = new Timer(DIAGNOSTICS_REFRESH_MILLIS, e -> {
+            if (tabs.getSelectedIndex() == STATS_TAB) {
+                refreshFleetStats();
+            } else if (tabs.getSelectedIndex() == DIAGNOSTICS_TAB) {
+                Database db = async.getDatabase();
+                QueryCache.Stats cacheStats = db.getCacheStats();
+                diagnosticsArea.setText(db.getMetrics().report()
+                        + (cacheStats != null ? "\nКэш результатов: " + cacheStats + "\n" : ""));
+            }
+        });
+        diagnosticsTimer.setInitialDelay(0);
+        diagnosticsTimer.start();
+    }
+
+    private JPanel createStatsPanel() {
+        brandStatsModel = new DefaultTableModel(BRAND_STATS_COLUMNS, 0);
+        yearStatsModel = new DefaultTableModel(YEAR_STATS_COLUMNS, 0);
+        fleetTotalLabel = new JLabel(" ");
+        JPanel tablesPanel = new JPanel(new GridLayout(1, 2));
+        tablesPanel.add(new JScrollPane(new JTable(brandStatsModel)));
+        tablesPanel.add(new JScrollPane(new JTable(yearStatsModel)));
+        JPanel statsPanel = new JPanel(new BorderLayout());
+        statsPanel.add(fleetTotalLabel, BorderLayout.NORTH);
+        statsPanel.add(tablesPanel, BorderLayout.CENTER);
+        return statsPanel;
+    }
+
+    // Сводки читаются из таблиц, которые ведут триггеры, поэтому обновлять их раз в секунду дёшево
+    private void refreshFleetStats() {
+        AsyncDatabase.onEdt(async.coalesce("fleetStats", Database::fleetStats), stats -> {
+            fleetTotalLabel.setText("Всего автомобилей: " + stats.totalCars()
+                    + ", марок: " + stats.byBrand().size() + ", лет выпуска: " + stats.byYear().size());
+            fillStats(brandStatsModel, stats.byBrand());
+            fillStats(yearStatsModel, stats.byYear());
+        }, ex -> fleetTotalLabel.setText("Статистика недоступна: " + ex.getMessage()));
+    }
+
+    private static void fillStats(DefaultTableModel model, List<FleetStats.Group> groups) {
+        model.setRowCount(0);
+        for (FleetStats.Group group : groups) {
+            model.addRow(new Object[]{group.key(), group.cars(), group.averagePrice(), group.minPrice(), group.maxPrice()});
+        }
+    }
+
+    private void stopDiagnostics() {
+        if (diagnosticsTimer != null) {
+            diagnosticsTimer.stop();
+            diagnosticsTimer = null;
+        }
+    }
+
+    private void showCarTable() {
+        async.cancel("table");
+        if (carTable.getModel() != carTableModel) {
+            carTable.setModel(carTableModel);
+        }
     }
 
     private void loadCarData() {
-        try {
-            List<String> cars = db.viewCars();
-            tableModel.setRowCount(0);
+        showCarTable();
+        subscribeToChanges();
+        carTableModel.reload();
+    }
+
+    private void reloadCarData() {
+        showCarTable();
+        subscribeToChanges();
+        carTableModel.syncChanges();
+        if (snapshotCheckBox.isSelected()) {
+            refreshSnapshot();
+        }
+    }
+
+    private void subscribeToChanges() {
+        String target = async.getDatabase().getTargetDatabase();
+        if (target == null || target.equals(subscribedDatabase)) {
+            return;
+        }
+        unsubscribeFromChanges();
+        subscribedDatabase = target;
+        changeSubscription = async.getDatabase().listenForCarChanges(
+                () -> SwingUtilities.invokeLater(() -> {
+                    carTableModel.syncChanges();
+                    suggestionIndex.syncChanges();
+                    if (snapshotCheckBox.isSelected()) {
+                        // Устаревший снимок не используется: пока грузится новый, поиск идёт в базу
+                        snapshot = null;
+                        refreshSnapshot();
+                    }
+                }));
+    }
 
-            for (String car : cars) {
-                String[] data = car.split(" \\| ");
-                tableModel.addRow(data);
+    private void unsubscribeFromChanges() {
+        if (changeSubscription != null) {
+            changeSubscription.close();
+            changeSubscription = null;
+            subscribedDatabase = null;
+        }
+    }
+
+    // Подсказки берутся из индекса в памяти: он загружается при первом вводе и дальше следует за журналом изменений
+    private void installAutocomplete() {
+        suggestionsPopup = new JPopupMenu();
+        suggestionsPopup.setFocusable(false);
+        suggestionIndex = new SuggestionIndex(async, ex -> {
+            if (!suggestionIndexFailed) {
+                suggestionIndexFailed = true;
+                outputArea.append("Автодополнение недоступно: " + ex.getMessage() + "\n");
+            }
+        }, reloaded -> {
+            suggestionIndexFailed = false;
+            // Индекс пришёл, пока пользователь печатал: подсказки строятся заново уже по нему
+            if (suggestionsPopup.isVisible() || (reloaded && !autocompleteTimer.isRunning())) {
+                showSuggestions();
             }
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this, "Ошибка при загрузке данных: " + e.getMessage());
+        });
+        autocompleteTimer = new Timer(AUTOCOMPLETE_DELAY_MILLIS, e -> {
+            showSuggestions();
+            suggestionIndex.ensureLoaded();
+        });
+        autocompleteTimer.setRepeats(false);
+        searchModelField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                scheduleSuggestions();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                scheduleSuggestions();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        searchModelField.addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusLost(FocusEvent e) {
+                autocompleteTimer.stop();
+                suggestionsPopup.setVisible(false);
+            }
+        });
+    }
+
+    private void scheduleSuggestions() {
+        if (!applyingSuggestion) {
+            autocompleteTimer.restart();
+        }
+    }
+
+    private void showSuggestions() {
+        suggestionsPopup.setVisible(false);
+        String text = searchModelField.getText().trim();
+        List<SuggestionIndex.Suggestion> suggestions = suggestionIndex.suggest(text, AUTOCOMPLETE_LIMIT);
+        if (!searchModelField.isFocusOwner() || suggestions.isEmpty()
+                || (suggestions.size() == 1 && suggestions.get(0).value().equals(text))) {
+            return;
+        }
+        suggestionsPopup.removeAll();
+        for (SuggestionIndex.Suggestion suggestion : suggestions) {
+            String value = suggestion.value();
+            if (suggestion.kind() == SuggestionIndex.Kind.BRAND) {
+                // Поиск в этой строке идёт по модели, поэтому марка подставляется в фильтр
+                JMenuItem item = new JMenuItem(value + " (марка)");
+                item.addActionListener(e -> {
+                    filterBrandField.setText(value);
+                    filterButton.doClick();
+                });
+                suggestionsPopup.add(item);
+                continue;
+            }
+            JMenuItem item = new JMenuItem(value);
+            item.addActionListener(e -> {
+                applyingSuggestion = true;
+                searchModelField.setText(value);
+                applyingSuggestion = false;
+                loadSearchResults(value);
+            });
+            suggestionsPopup.add(item);
+        }
+        suggestionsPopup.show(searchModelField, 0, searchModelField.getHeight());
+    }
+
+    private void refreshSnapshot() {
+        long start = System.nanoTime();
+        AsyncDatabase.onEdt(async.supersede("snapshot", Database::loadCarSnapshot), loaded -> {
+            if (!snapshotCheckBox.isSelected()) {
+                return;
+            }
+            snapshot = loaded;
+            outputArea.append("Снимок в памяти загружен: " + loaded.size() + " автомобилей за "
+                    + (System.nanoTime() - start) / 1_000_000 + " мс.\n");
+        }, ex -> {
+            snapshotCheckBox.setSelected(false);
+            outputArea.append("Ошибка при загрузке снимка: " + ex.getMessage() + "\n");
+        });
+    }
+
+    private void loadFilteredPage(Car after) {
+        CarQuery filter = lastFilter;
+        CarSnapshot local = snapshot;
+        AsyncDatabase.DatabaseCall<FacetedSearchResult> search = local == null
+                ? db -> db.searchCars(filter, after)
+                : db -> local.search(filter, after);
+        AsyncDatabase.onEdt(async.supersede("table", search), result -> {
+            tableModel.setRowCount(0);
+            carTable.setModel(tableModel);
+            for (Car car : result.cars()) {
+                tableModel.addRow(car.toRow());
+            }
+            lastFilterCar = result.lastCar();
+            filterNextButton.setEnabled(result.cars().size() == FILTER_PAGE_SIZE);
+
+            outputArea.append("Найдено: " + result.total() + ", цена от " + result.minPrice()
+                    + " до " + result.maxPrice() + "\n");
+            outputArea.append("  по маркам: " + result.brandCounts() + "\n");
+            StringBuilder years = new StringBuilder();
+            result.yearBucketCounts().forEach((bucket, count) -> years.append(bucket).append('–')
+                    .append(bucket + FacetedSearchResult.YEAR_BUCKET - 1).append(": ").append(count).append("; "));
+            outputArea.append("  по годам: " + years + "\n");
+        }, ex -> JOptionPane.showMessageDialog(this, "Ошибка при поиске: " + ex.getMessage()));
+    }
+
+    // Пустые поля фильтра означают выгрузку всей таблицы
+    private CarQuery exportFilter() {
+        JTextField[] fields = { filterBrandField, filterModelField, filterYearFromField, filterYearToField,
+                filterPriceFromField, filterPriceToField };
+        boolean empty = true;
+        for (JTextField field : fields) {
+            empty &= textOrNull(field) == null;
         }
+        if (empty) {
+            return null;
+        }
+        return new CarQuery()
+                .brand(textOrNull(filterBrandField))
+                .model(textOrNull(filterModelField))
+                .yearBetween(intOrNull(filterYearFromField), intOrNull(filterYearToField))
+                .priceBetween(decimalOrNull(filterPriceFromField), decimalOrNull(filterPriceToField));
+    }
+
+    private static String textOrNull(JTextField field) {
+        String text = field.getText().trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    private static Integer intOrNull(JTextField field) {
+        String text = textOrNull(field);
+        return text == null ? null : Integer.valueOf(text);
+    }
+
+    private static BigDecimal decimalOrNull(JTextField field) {
+        String text = textOrNull(field);
+        return text == null ? null : new BigDecimal(text);
     }
 
     private void loadSearchResults(String model) {
-        try {
-            List<Object[]> cars = db.searchCar(model);
+        CarSnapshot local = snapshot;
+        AsyncDatabase.DatabaseCall<List<Object[]>> search = local == null
+                ? db -> db.searchCar(model)
+                : db -> local.query(new CarQuery().model(model)).stream().map(Car::toRow).toList();
+        AsyncDatabase.onEdt(async.supersede("table", search), cars -> {
             tableModel.setRowCount(0);
+            carTable.setModel(tableModel);
 
             for (Object[] car : cars) {
                 tableModel.addRow(car);
             }
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this, "Ошибка при загрузке данных: " + e.getMessage());
-        }
+        }, ex -> JOptionPane.showMessageDialog(this, "Ошибка при загрузке данных: " + ex.getMessage()));
     }
 
 }
@@ -0,0 +1,245 @@
+package org.example;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+public final class CarSnapshot {
+    private static final int PARALLEL_THRESHOLD = 50_000;
+    private static final int INDEX_BITS = 28;
+    private static final long MAX_SORT_KEY = 1L << (63 - INDEX_BITS);
+
+    private final int size;
+    private final int[] ids;
+    private final int[] years;
+    private final long[] priceCents;
+    private final int[] brandCodes;
+    private final int[] modelCodes;
+    private final String[] brandDictionary;
+    private final String[] modelDictionary;
+    private final Map<String, Integer> brandLookup;
+    private final Map<String, Integer> modelLookup;
+    private final long minPriceCents;
+    private final long maxPriceCents;
+
+    private CarSnapshot(Builder builder) {
+        this.size = builder.size;
+        this.ids = Arrays.copyOf(builder.ids, size);
+        this.years = Arrays.copyOf(builder.years, size);
+        this.priceCents = Arrays.copyOf(builder.priceCents, size);
+        this.brandCodes = Arrays.copyOf(builder.brandCodes, size);
+        this.modelCodes = Arrays.copyOf(builder.modelCodes, size);
+        this.brandDictionary = builder.brands.toArray(new String[0]);
+        this.modelDictionary = builder.models.toArray(new String[0]);
+        this.brandLookup = Map.copyOf(builder.brandLookup);
+        this.modelLookup = Map.copyOf(builder.modelLookup);
+        this.minPriceCents = size == 0 ? 0 : Arrays.stream(priceCents).min().getAsLong();
+        this.maxPriceCents = size == 0 ? 0 : Arrays.stream(priceCents).max().getAsLong();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Car get(int row) {
+        return new Car(ids[row], brandDictionary[brandCodes[row]], modelDictionary[modelCodes[row]],
+                years[row], BigDecimal.valueOf(priceCents[row], 2));
+    }
+
+    public List<Car> query(CarQuery query) {
+        if (query.getLimit() == 0) {
+            return List.of();
+        }
+        int[] ordered = sort(matching(query), query.getSortKey(), query.isDescending());
+        int count = Math.min(ordered.length, query.getLimit());
+        List<Car> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(get(ordered[i]));
+        }
+        return result;
+    }
+
+    // То же, что Database.searchCars, но по снимку: страница после строки after в порядке query.comparator()
+    // и фасеты по всем подходящим строкам
+    public FacetedSearchResult search(CarQuery query, Car after) {
+        int[] matched = matching(query);
+        int limit = Math.min(query.getLimit(), Database.MAX_SEARCH_PAGE);
+        int[] ordered = sort(matched, query.getSortKey(), query.isDescending());
+        int from = after == null ? 0 : firstAfter(ordered, query.comparator(), after);
+        int to = Math.min(ordered.length, from + limit);
+        List<Car> page = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            page.add(get(ordered[i]));
+        }
+
+        int[] brandCounts = new int[brandDictionary.length];
+        Map<Integer, Long> yearCounts = new TreeMap<>();
+        long minCents = Long.MAX_VALUE;
+        long maxCents = Long.MIN_VALUE;
+        for (int row : matched) {
+            brandCounts[brandCodes[row]]++;
+            yearCounts.merge(years[row] / FacetedSearchResult.YEAR_BUCKET * FacetedSearchResult.YEAR_BUCKET, 1L, Long::sum);
+            minCents = Math.min(minCents, priceCents[row]);
+            maxCents = Math.max(maxCents, priceCents[row]);
+        }
+
+        Map<String, Long> brandsByCount = new LinkedHashMap<>();
+        IntStream.range(0, brandCounts.length).filter(code -> brandCounts[code] > 0).boxed()
+                .sorted(Comparator.<Integer>comparingInt(code -> brandCounts[code]).reversed())
+                .forEach(code -> brandsByCount.put(brandDictionary[code], (long) brandCounts[code]));
+        boolean empty = matched.length == 0;
+        return new FacetedSearchResult(List.copyOf(page), matched.length, Collections.unmodifiableMap(brandsByCount),
+                Collections.unmodifiableMap(yearCounts),
+                empty ? null : BigDecimal.valueOf(minCents, 2), empty ? null : BigDecimal.valueOf(maxCents, 2));
+    }
+
+    // Строки упорядочены тем же компаратором, поэтому начало страницы ищется двоичным поиском
+    private int firstAfter(int[] ordered, Comparator<Car> order, Car after) {
+        int low = 0;
+        int high = ordered.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (order.compare(get(ordered[mid]), after) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Номера подходящих строк в порядке снимка, то есть по возрастанию id
+    private int[] matching(CarQuery query) {
+        int brandCode = code(brandLookup, query.getBrand());
+        int modelCode = code(modelLookup, query.getModel());
+        if (brandCode == -2 || modelCode == -2) {
+            return new int[0];
+        }
+        int yearFrom = query.getYearFrom() != null ? query.getYearFrom() : Integer.MIN_VALUE;
+        int yearTo = query.getYearTo() != null ? query.getYearTo() : Integer.MAX_VALUE;
+        long priceFrom = query.getPriceFrom() != null ? toCents(query.getPriceFrom(), RoundingMode.CEILING) : Long.MIN_VALUE;
+        long priceTo = query.getPriceTo() != null ? toCents(query.getPriceTo(), RoundingMode.FLOOR) : Long.MAX_VALUE;
+
+        IntStream rows = IntStream.range(0, size);
+        if (size >= PARALLEL_THRESHOLD) {
+            rows = rows.parallel();
+        }
+        return rows.filter(i -> years[i] >= yearFrom && years[i] <= yearTo
+                        && priceCents[i] >= priceFrom && priceCents[i] <= priceTo
+                        && (brandCode == -1 || brandCodes[i] == brandCode)
+                        && (modelCode == -1 || modelCodes[i] == modelCode))
+                .toArray();
+    }
+
+    private int[] sort(int[] matched, CarQuery.SortKey key, boolean descending) {
+        if (key == CarQuery.SortKey.ID && !descending) {
+            // Снимок строится в порядке id, поэтому результат скана уже отсортирован
+            return matched;
+        }
+        if (size >= (1 << INDEX_BITS) || (key == CarQuery.SortKey.PRICE && maxPriceCents - minPriceCents >= MAX_SORT_KEY)) {
+            return sortBoxed(matched, key, descending);
+        }
+
+        // Ключ сортировки и номер строки упакованы в один long, чтобы сортировать примитивы без компаратора
+        long[] packed = new long[matched.length];
+        for (int i = 0; i < matched.length; i++) {
+            int row = matched[i];
+            packed[i] = (sortKey(row, key) << INDEX_BITS) | row;
+        }
+        Arrays.parallelSort(packed);
+        long mask = (1L << INDEX_BITS) - 1;
+        int[] ordered = new int[packed.length];
+        for (int i = 0; i < packed.length; i++) {
+            int target = descending ? packed.length - 1 - i : i;
+            ordered[target] = (int) (packed[i] & mask);
+        }
+        return ordered;
+    }
+
+    private long sortKey(int row, CarQuery.SortKey key) {
+        return switch (key) {
+            case ID -> (long) ids[row] - Integer.MIN_VALUE;
+            case YEAR -> (long) years[row] - Integer.MIN_VALUE;
+            case PRICE -> priceCents[row] - minPriceCents;
+        };
+    }
+
+    private int[] sortBoxed(int[] matched, CarQuery.SortKey key, boolean descending) {
+        // При равном ключе порядок по номеру строки, то есть по id, в том же направлении, что и ключ
+        Comparator<Integer> comparator = Comparator.<Integer>comparingLong(row -> sortKey(row, key))
+                .thenComparingInt(row -> row);
+        if (descending) {
+            comparator = comparator.reversed();
+        }
+        return Arrays.stream(matched).boxed().sorted(comparator).mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int code(Map<String, Integer> lookup, String value) {
+        if (value == null) {
+            return -1;
+        }
+        return lookup.getOrDefault(value, -2);
+    }
+
+    static long toCents(BigDecimal price, RoundingMode rounding) {
+        return price.setScale(2, rounding).unscaledValue().longValueExact();
+    }
+
+    public static class Builder {
+        private int size = 0;
+        private int[] ids = new int[1024];
+        private int[] years = new int[1024];
+        private long[] priceCents = new long[1024];
+        private int[] brandCodes = new int[1024];
+        private int[] modelCodes = new int[1024];
+        private final List<String> brands = new ArrayList<>();
+        private final List<String> models = new ArrayList<>();
+        private final Map<String, Integer> brandLookup = new HashMap<>();
+        private final Map<String, Integer> modelLookup = new HashMap<>();
+
+        public Builder add(int id, String brand, String model, int year, BigDecimal price) {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                years = Arrays.copyOf(years, capacity);
+                priceCents = Arrays.copyOf(priceCents, capacity);
+                brandCodes = Arrays.copyOf(brandCodes, capacity);
+                modelCodes = Arrays.copyOf(modelCodes, capacity);
+            }
+            ids[size] = id;
+            years[size] = year;
+            priceCents[size] = toCents(price, RoundingMode.HALF_UP);
+            brandCodes[size] = intern(brandLookup, brands, brand);
+            modelCodes[size] = intern(modelLookup, models, model);
+            size++;
+            return this;
+        }
+
+        private static int intern(Map<String, Integer> lookup, List<String> dictionary, String value) {
+            Integer code = lookup.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(value);
+                lookup.put(value, code);
+            }
+            return code;
+        }
+
+        public CarSnapshot build() {
+            return new CarSnapshot(this);
+        }
+    }
+}
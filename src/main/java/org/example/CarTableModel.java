@@ -0,0 +1,235 @@
+package org.example;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+public class CarTableModel extends AbstractTableModel {
+    public static final String[] COLUMNS = {"ID", "Brand", "Model", "Year", "Price"};
+    private static final int PAGE_SIZE = 200;
+    private static final int MAX_CACHED_PAGES = 16;
+    private static final int FIRST_PAGE_AFTER_ID = 0;
+
+    private final AsyncDatabase async;
+    private final Consumer<Exception> errorHandler;
+
+    // Всё состояние ниже читается и меняется только в EDT
+    private int rowCount = 0;
+    private int generation = 0;
+    private int pageGeneration = 0;
+    private String cursor = null;
+    private final TreeMap<Integer, Integer> pageStarts = new TreeMap<>();
+    private final Set<Integer> loading = new HashSet<>();
+    private final Map<Integer, List<Car>> pages = new LinkedHashMap<>(MAX_CACHED_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<Car>> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+
+    private record LoadedPage(int afterId, List<Car> rows) {
+    }
+
+    public CarTableModel(AsyncDatabase async, Consumer<Exception> errorHandler) {
+        this.async = async;
+        this.errorHandler = errorHandler;
+    }
+
+    public void reload() {
+        load(async.coalesce("cars:baseline", Database::loadChangeBaseline));
+    }
+
+    // После изменения данных нельзя присоединяться к уже идущему подсчёту: он мог начаться до коммита
+    public void reloadAfterChange() {
+        load(async.submit(Database::loadChangeBaseline));
+    }
+
+    public void syncChanges() {
+        if (cursor == null) {
+            reloadAfterChange();
+            return;
+        }
+        String since = cursor;
+        AsyncDatabase.onEdt(async.coalesce("cars:delta:" + since, db -> db.fetchChangesSince(since)), delta -> {
+            if (since.equals(cursor)) {
+                applyDelta(delta);
+            }
+        }, this::reportError);
+    }
+
+    private void load(CompletableFuture<CarDelta.Baseline> baselineFuture) {
+        int requestGeneration = ++generation;
+        AsyncDatabase.onEdt(baselineFuture, baseline -> {
+            if (requestGeneration == generation) {
+                reset(baseline);
+            }
+        }, this::reportError);
+    }
+
+    private void reset(CarDelta.Baseline baseline) {
+        pageGeneration++;
+        pages.clear();
+        loading.clear();
+        pageStarts.clear();
+        pageStarts.put(0, FIRST_PAGE_AFTER_ID);
+        rowCount = baseline.rowCount();
+        cursor = baseline.cursor();
+        fireTableDataChanged();
+    }
+
+    private void applyDelta(CarDelta delta) {
+        if (delta.reset()) {
+            cursor = null;
+            reloadAfterChange();
+            return;
+        }
+        cursor = delta.cursor();
+        if (delta.isEmpty()) {
+            return;
+        }
+        // Загрузки страниц, начатые до изменения, могут вернуть старые строки: их результат отбрасывается,
+        // а новые запросы не присоединяются к ним, потому что поколение входит в ключ объединения
+        pageGeneration++;
+        loading.clear();
+
+        if (!delta.updated().isEmpty()) {
+            Map<Integer, Car> updated = new HashMap<>();
+            delta.updated().forEach(car -> updated.put(car.id(), car));
+            for (Map.Entry<Integer, List<Car>> entry : pages.entrySet()) {
+                List<Car> rows = entry.getValue();
+                List<Car> patched = null;
+                for (int i = 0; i < rows.size(); i++) {
+                    Car car = updated.get(rows.get(i).id());
+                    if (car != null) {
+                        if (patched == null) {
+                            patched = new ArrayList<>(rows);
+                        }
+                        patched.set(i, car);
+                    }
+                }
+                if (patched != null) {
+                    entry.setValue(patched);
+                    int first = entry.getKey() * PAGE_SIZE;
+                    fireTableRowsUpdated(first, Math.min(rowCount, first + PAGE_SIZE) - 1);
+                }
+            }
+        }
+
+        if (delta.isStructural()) {
+            // Вставка или удаление сдвигает все строки после затронутого id: страницы до него остаются,
+            // остальные будут подгружены заново, когда попадут в область просмотра
+            int minAffectedId = Integer.MAX_VALUE;
+            for (Car car : delta.added()) {
+                minAffectedId = Math.min(minAffectedId, car.id());
+            }
+            for (int carId : delta.removed()) {
+                minAffectedId = Math.min(minAffectedId, carId);
+            }
+            int firstAffected = minAffectedId;
+            pages.entrySet().removeIf(entry -> {
+                List<Car> rows = entry.getValue();
+                return rows.size() < PAGE_SIZE || rows.get(rows.size() - 1).id() >= firstAffected;
+            });
+            pageStarts.entrySet().removeIf(entry -> entry.getKey() > 0 && entry.getValue() >= firstAffected);
+            rowCount = Math.max(0, rowCount + delta.added().size() - delta.removed().size());
+            fireTableDataChanged();
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        int page = rowIndex / PAGE_SIZE;
+        List<Car> rows = pages.get(page);
+        if (rows == null) {
+            requestPage(page);
+            return null;
+        }
+        int offset = rowIndex % PAGE_SIZE;
+        if (offset >= rows.size()) {
+            return null;
+        }
+        Car car = rows.get(offset);
+        return switch (columnIndex) {
+            case 0 -> car.id();
+            case 1 -> car.brand();
+            case 2 -> car.model();
+            case 3 -> car.year();
+            case 4 -> car.price();
+            default -> null;
+        };
+    }
+
+    private void requestPage(int page) {
+        if (!loading.add(page)) {
+            return;
+        }
+        Map.Entry<Integer, Integer> known = pageStarts.floorEntry(page);
+        int knownPage = known.getKey();
+        int knownAfterId = known.getValue();
+        int requestGeneration = pageGeneration;
+
+        AsyncDatabase.onEdt(async.coalesce("cars:page:" + requestGeneration + ":" + knownAfterId + ":" + (page - knownPage), db -> {
+            // Keyset-переход: если начало страницы неизвестно, ищем его по индексу id от ближайшей известной границы
+            int afterId = knownPage == page
+                    ? knownAfterId
+                    : db.seekCarId(knownAfterId, (page - knownPage) * PAGE_SIZE - 1);
+            return new LoadedPage(afterId, afterId == -1 ? List.of() : db.viewCarsPage(afterId, PAGE_SIZE));
+        }), loaded -> {
+            if (requestGeneration != pageGeneration) {
+                return;
+            }
+            loading.remove(page);
+            applyPage(page, loaded.afterId(), loaded.rows());
+        }, error -> {
+            if (requestGeneration != pageGeneration) {
+                return;
+            }
+            loading.remove(page);
+            // Пустая страница до следующего reload(), иначе перерисовка будет повторять запрос бесконечно
+            pages.put(page, List.of());
+            reportError(error);
+        });
+    }
+
+    private void applyPage(int page, int afterId, List<Car> rows) {
+        if (afterId != -1) {
+            pageStarts.put(page, afterId);
+        }
+        if (rows.size() == PAGE_SIZE) {
+            pageStarts.put(page + 1, rows.get(rows.size() - 1).id());
+        }
+        pages.put(page, rows);
+        int first = page * PAGE_SIZE;
+        int last = Math.min(rowCount, first + PAGE_SIZE) - 1;
+        if (last >= first) {
+            fireTableRowsUpdated(first, last);
+        }
+    }
+
+    private void reportError(Throwable error) {
+        errorHandler.accept(error instanceof Exception e ? e : new Exception(error));
+    }
+}
@@ -0,0 +1,246 @@
+package org.example;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+// Пакетное слияние автомобилей: строки заливаются COPY во временную таблицу и применяются
+// одним INSERT ... ON CONFLICT DO UPDATE, который не трогает строки без изменений.
+public class CarUpserter {
+    private static final int BATCH_SIZE = 1000;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_REJECTED_SAMPLES = 20;
+    private static final String STAGING_TABLE = "cars_upsert_staging";
+
+    // ord сохраняет порядок входа: при повторе id в пакете побеждает последняя запись
+    private static final String CREATE_STAGING_SQL = "CREATE TEMP TABLE IF NOT EXISTS " + STAGING_TABLE + " ("
+            + "ord BIGINT GENERATED ALWAYS AS IDENTITY, id INTEGER, brand TEXT NOT NULL, model TEXT NOT NULL, "
+            + "year INTEGER NOT NULL, price NUMERIC(10,2) NOT NULL) ON COMMIT DELETE ROWS";
+    private static final String COPY_SQL = "COPY " + STAGING_TABLE + " (id, brand, model, year, price) FROM STDIN WITH (FORMAT csv)";
+    private static final String INSERT_STAGING_SQL = "INSERT INTO " + STAGING_TABLE + " (id, brand, model, year, price) VALUES (?, ?, ?, ?, ?)";
+
+    // Явные id могут обогнать последовательность; сдвигаем её только вперёд. Проверка и setval не атомарны,
+    // поэтому параллельные слияния сдвигают её по очереди, иначе меньшее значение могло бы записаться последним
+    // и последовательность выдала бы уже занятые id.
+    private static final String SEQUENCE_LOCK_SQL = "SELECT pg_advisory_xact_lock(hashtext('cars_id_sequence'))";
+    private static final String ADVANCE_SEQUENCE_SQL = "SELECT setval(s::regclass, ?) FROM pg_get_serial_sequence('cars', 'id') AS s "
+            + "WHERE ? > coalesce(pg_sequence_last_value(s::regclass), 0)";
+
+    private static final String SRC_CTE = "src AS ("
+            + "SELECT DISTINCT ON (id) id, brand, model, year, price FROM " + STAGING_TABLE
+            + " WHERE id IS NOT NULL ORDER BY id, ord DESC), ";
+    private static final String ADDED_CTE = "added AS (INSERT INTO cars (brand, model, year, price) "
+            + "SELECT brand, model, year, price FROM " + STAGING_TABLE + " WHERE id IS NULL ORDER BY ord RETURNING 1) ";
+
+    // xmax = 0 у только что вставленной версии строки, у обновлённой через ON CONFLICT — нет
+    private static final String MERGE_SQL = "WITH " + SRC_CTE
+            + "merged AS (INSERT INTO cars AS c (id, brand, model, year, price) "
+            + "SELECT id, brand, model, year, price FROM src "
+            + "ON CONFLICT (id) DO UPDATE SET brand = EXCLUDED.brand, model = EXCLUDED.model, "
+            + "year = EXCLUDED.year, price = EXCLUDED.price "
+            + "WHERE (c.brand, c.model, c.year, c.price) IS DISTINCT FROM "
+            + "(EXCLUDED.brand, EXCLUDED.model, EXCLUDED.year, EXCLUDED.price) "
+            + "RETURNING (xmax = 0) AS inserted), "
+            + ADDED_CTE
+            + "SELECT (SELECT count(*) FROM src), "
+            + "(SELECT count(*) FROM merged WHERE inserted), "
+            + "(SELECT count(*) FROM merged WHERE NOT inserted), "
+            + "(SELECT count(*) FROM added)";
+
+    // У секционированной по году cars ключ (id, year), и ON CONFLICT (id) невозможен: существующие id
+    // обновляются (смена года переносит строку в другую секцию), отсутствующие вставляются.
+    // Уникальный индекс по одному id на секционированной таблице не построить, поэтому уникальность
+    // держится на блокировке: слияние берёт SHARE ROW EXCLUSIVE на cars, а любая запись в cars —
+    // вставка, COPY, обновление, удаление — берёт ROW EXCLUSIVE, который с ней конфликтует.
+    // Запись в секцию напрямую, минуя cars, эту блокировку обходит и не поддерживается.
+    private static final String MERGE_PARTITIONED_SQL = "WITH " + SRC_CTE
+            + "updated AS (UPDATE cars c SET brand = src.brand, model = src.model, year = src.year, price = src.price "
+            + "FROM src WHERE c.id = src.id AND (c.brand, c.model, c.year, c.price) IS DISTINCT FROM "
+            + "(src.brand, src.model, src.year, src.price) RETURNING 1), "
+            + "inserted AS (INSERT INTO cars (id, brand, model, year, price) "
+            + "SELECT id, brand, model, year, price FROM src "
+            + "WHERE NOT EXISTS (SELECT 1 FROM cars c WHERE c.id = src.id) RETURNING 1), "
+            + ADDED_CTE
+            + "SELECT (SELECT count(*) FROM src), "
+            + "(SELECT count(*) FROM inserted), "
+            + "(SELECT count(*) FROM updated), "
+            + "(SELECT count(*) FROM added)";
+    private static final String IS_PARTITIONED_SQL = "SELECT relkind = 'p' FROM pg_class WHERE oid = 'cars'::regclass";
+
+    private final Connection conn;
+    private final boolean useCopy;
+    private long rejected = 0;
+    private final List<String> rejectedSamples = new ArrayList<>();
+
+    public record UpsertResult(long inserted, long updated, long unchanged, long rejected,
+                               List<String> rejectedSamples, Duration elapsed) {
+        @Override
+        public String toString() {
+            return String.format("добавлено %d, обновлено %d, без изменений %d, отклонено %d за %d мс",
+                    inserted, updated, unchanged, rejected, elapsed.toMillis());
+        }
+    }
+
+    public CarUpserter(Connection conn) throws SQLException {
+        this(conn, conn.isWrapperFor(PGConnection.class));
+    }
+
+    public CarUpserter(Connection conn, boolean useCopy) {
+        this.conn = conn;
+        this.useCopy = useCopy;
+    }
+
+    // Автомобили с id > 0 сливаются по id, несохранённые (id == 0) добавляются как новые
+    public UpsertResult upsert(Iterable<Car> cars) throws SQLException {
+        long start = System.nanoTime();
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(CREATE_STAGING_SQL);
+            }
+            int maxExplicitId = useCopy ? copyToStaging(cars) : insertToStaging(cars);
+
+            // Блокировка берётся после заливки во временную таблицу, чтобы писатели ждали только само слияние.
+            // Она же ждёт вставки, уже получившие id из последовательности: после неё NOT EXISTS их видит.
+            boolean partitioned = isPartitioned();
+            if (partitioned) {
+                try (PreparedStatement stmt = conn.prepareStatement("LOCK TABLE cars IN SHARE ROW EXCLUSIVE MODE")) {
+                    stmt.execute();
+                }
+            }
+            if (maxExplicitId > 0) {
+                try (PreparedStatement stmt = conn.prepareStatement(SEQUENCE_LOCK_SQL)) {
+                    stmt.execute();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(ADVANCE_SEQUENCE_SQL)) {
+                    stmt.setLong(1, maxExplicitId);
+                    stmt.setLong(2, maxExplicitId);
+                    stmt.execute();
+                }
+            }
+
+            long withId;
+            long inserted;
+            long updated;
+            long added;
+            try (PreparedStatement stmt = conn.prepareStatement(partitioned ? MERGE_PARTITIONED_SQL : MERGE_SQL);
+                 ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                withId = rs.getLong(1);
+                inserted = rs.getLong(2);
+                updated = rs.getLong(3);
+                added = rs.getLong(4);
+            }
+            conn.commit();
+            return new UpsertResult(inserted + added, updated, withId - inserted - updated, rejected,
+                    List.copyOf(rejectedSamples), Duration.ofNanos(System.nanoTime() - start));
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    private boolean isPartitioned() throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(IS_PARTITIONED_SQL);
+             ResultSet rs = stmt.executeQuery()) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    private int copyToStaging(Iterable<Car> cars) throws SQLException {
+        int maxExplicitId = 0;
+        CopyIn copyIn = conn.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL);
+        try {
+            StringBuilder buffer = new StringBuilder(COPY_BUFFER_SIZE + 1024);
+            for (Car car : cars) {
+                if (!accept(car)) {
+                    continue;
+                }
+                if (car.isSaved()) {
+                    buffer.append(car.id());
+                    maxExplicitId = Math.max(maxExplicitId, car.id());
+                }
+                buffer.append(',');
+                CarImporter.appendQuoted(buffer, car.brand());
+                buffer.append(',');
+                CarImporter.appendQuoted(buffer, car.model());
+                buffer.append(',').append(car.year()).append(',').append(car.price().toPlainString()).append('\n');
+                if (buffer.length() >= COPY_BUFFER_SIZE) {
+                    flush(copyIn, buffer);
+                }
+            }
+            flush(copyIn, buffer);
+            copyIn.endCopy();
+            return maxExplicitId;
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    private static void flush(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+        if (buffer.length() == 0) {
+            return;
+        }
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+
+    private int insertToStaging(Iterable<Car> cars) throws SQLException {
+        int maxExplicitId = 0;
+        try (PreparedStatement stmt = conn.prepareStatement(INSERT_STAGING_SQL)) {
+            int pending = 0;
+            for (Car car : cars) {
+                if (!accept(car)) {
+                    continue;
+                }
+                if (car.isSaved()) {
+                    stmt.setInt(1, car.id());
+                    maxExplicitId = Math.max(maxExplicitId, car.id());
+                } else {
+                    stmt.setNull(1, Types.INTEGER);
+                }
+                stmt.setString(2, car.brand());
+                stmt.setString(3, car.model());
+                stmt.setInt(4, car.year());
+                stmt.setBigDecimal(5, car.price());
+                stmt.addBatch();
+                if (++pending == BATCH_SIZE) {
+                    stmt.executeBatch();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                stmt.executeBatch();
+            }
+        }
+        return maxExplicitId;
+    }
+
+    private boolean accept(Car car) {
+        String problem = CarImporter.validate(car);
+        if (problem == null) {
+            return true;
+        }
+        rejected++;
+        if (rejectedSamples.size() < MAX_REJECTED_SAMPLES) {
+            rejectedSamples.add(problem + ": " + car);
+        }
+        return false;
+    }
+}
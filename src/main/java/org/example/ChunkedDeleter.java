@@ -0,0 +1,115 @@
+package org.example;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.function.Consumer;
+
+// Удаление порциями по возрастанию id: каждая порция — отдельная короткая транзакция,
+// поэтому блокировки строк и всплеск WAL ограничены размером порции, а между порциями есть пауза.
+// Отмена — через прерывание потока; уже удалённые порции остаются удалёнными.
+public class ChunkedDeleter {
+    public static final int DEFAULT_BATCH_SIZE = 5000;
+    public static final Duration DEFAULT_PAUSE = Duration.ofMillis(50);
+
+    public record Options(int batchSize, Duration pause) {
+        public Options {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("Размер порции должен быть положительным: " + batchSize);
+            }
+            if (pause.isNegative()) {
+                throw new IllegalArgumentException("Пауза не может быть отрицательной: " + pause);
+            }
+        }
+
+        public static Options defaults() {
+            return new Options(DEFAULT_BATCH_SIZE, DEFAULT_PAUSE);
+        }
+    }
+
+    public record Progress(long deleted, int batches, int lastId, Duration elapsed, boolean finished, boolean cancelled) {
+        @Override
+        public String toString() {
+            return String.format("удалено %d за %d порций (до id %d), %d мс%s",
+                    deleted, batches, lastId, elapsed.toMillis(), cancelled ? ", отменено" : finished ? ", готово" : "");
+        }
+    }
+
+    private final Connection conn;
+    private final Options options;
+    private final Consumer<Progress> listener;
+
+    public ChunkedDeleter(Connection conn, Options options, Consumer<Progress> listener) {
+        this.conn = conn;
+        this.options = options;
+        this.listener = listener != null ? listener : progress -> { };
+    }
+
+    public Progress deleteByModel(String model) throws SQLException {
+        return run(" AND model = ?", model);
+    }
+
+    public Progress deleteAll() throws SQLException {
+        return run("", null);
+    }
+
+    // Условие повторяется в DELETE: строка, которую между выборкой порции и удалением успели
+    // переименовать в другую модель, не удаляется
+    private Progress run(String condition, String model) throws SQLException {
+        String sql = "WITH batch AS (SELECT id FROM cars WHERE id > ?" + condition + " ORDER BY id LIMIT ?), "
+                + "removed AS (DELETE FROM cars WHERE id IN (SELECT id FROM batch)" + condition + " RETURNING 1) "
+                + "SELECT (SELECT max(id) FROM batch), (SELECT count(*) FROM removed)";
+        long start = System.nanoTime();
+        long deleted = 0;
+        int batches = 0;
+        int lastId = 0;
+
+        if (!conn.getAutoCommit()) {
+            conn.setAutoCommit(true);
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            while (true) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return report(deleted, batches, lastId, start, false, true);
+                }
+                int index = 1;
+                stmt.setInt(index++, lastId);
+                if (model != null) {
+                    stmt.setString(index++, model);
+                }
+                stmt.setInt(index++, options.batchSize());
+                if (model != null) {
+                    stmt.setString(index, model);
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    int batchMaxId = rs.getInt(1);
+                    if (rs.wasNull()) {
+                        return report(deleted, batches, lastId, start, true, false);
+                    }
+                    lastId = batchMaxId;
+                    deleted += rs.getLong(2);
+                    batches++;
+                }
+                report(deleted, batches, lastId, start, false, false);
+
+                if (!options.pause().isZero()) {
+                    try {
+                        Thread.sleep(options.pause());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+    private Progress report(long deleted, int batches, int lastId, long start, boolean finished, boolean cancelled) {
+        Progress progress = new Progress(deleted, batches, lastId, Duration.ofNanos(System.nanoTime() - start),
+                finished, cancelled);
+        listener.accept(progress);
+        return progress;
+    }
+}
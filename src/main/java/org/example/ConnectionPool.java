@@ -0,0 +1,271 @@
+package org.example;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+public class ConnectionPool implements AutoCloseable {
+    public static final int DEFAULT_MAX_SIZE = 8;
+    public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(5);
+    public static final Duration DEFAULT_ACQUIRE_TIMEOUT = Duration.ofSeconds(10);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final Duration VALIDATE_AFTER_IDLE = Duration.ofSeconds(30);
+    // Запросы, которые меняют настройки сессии, а не одной транзакции (SET LOCAL и SET TRANSACTION не в счёт)
+    private static final Pattern SESSION_SQL = Pattern.compile(
+            "^\\s*(RESET\\b|SET\\s+(?!LOCAL\\b|TRANSACTION\\b)|.*\\bset_config\\s*\\()",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "connection-pool-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String url;
+    private final Properties properties;
+    private final long idleTimeoutNanos;
+    private final long acquireTimeoutNanos;
+    private final Semaphore permits;
+    private final Deque<IdleConnection> idle = new ArrayDeque<>();
+    private final ScheduledFuture<?> evictionTask;
+    private volatile boolean closed = false;
+
+    private record IdleConnection(Connection connection, long releasedAt) {
+    }
+
+    public ConnectionPool(String url, Properties properties) {
+        this(url, properties, DEFAULT_MAX_SIZE, DEFAULT_IDLE_TIMEOUT, DEFAULT_ACQUIRE_TIMEOUT);
+    }
+
+    public ConnectionPool(String url, Properties properties, int maxSize, Duration idleTimeout, Duration acquireTimeout) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Размер пула должен быть положительным: " + maxSize);
+        }
+        this.url = url;
+        this.properties = properties;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.acquireTimeoutNanos = acquireTimeout.toNanos();
+        this.permits = new Semaphore(maxSize, true);
+        long period = Math.max(1, idleTimeout.toSeconds() / 2);
+        this.evictionTask = EVICTOR.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.SECONDS);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Пул соединений закрыт: " + url);
+        }
+        try {
+            if (!permits.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new SQLException("Превышено время ожидания свободного соединения: " + url, "08001");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Ожидание соединения прервано", "08001", e);
+        }
+
+        try {
+            Connection physical = borrowIdle();
+            if (physical == null) {
+                physical = DriverManager.getConnection(url, properties);
+            }
+            return wrap(physical);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Connection borrowIdle() {
+        while (true) {
+            IdleConnection candidate;
+            synchronized (idle) {
+                candidate = idle.pollFirst();
+            }
+            if (candidate == null) {
+                return null;
+            }
+            long idleFor = System.nanoTime() - candidate.releasedAt();
+            if (idleFor > idleTimeoutNanos) {
+                closeQuietly(candidate.connection());
+                continue;
+            }
+            if (idleFor > VALIDATE_AFTER_IDLE.toNanos() && !isValid(candidate.connection())) {
+                closeQuietly(candidate.connection());
+                continue;
+            }
+            return candidate.connection();
+        }
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return !connection.isClosed() && connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // Соединение возвращается в пул в исходном состоянии. Настройки сессии сбрасываются RESET ALL
+    // (в том числе уровень изоляции по умолчанию и search_path), а не DISCARD ALL: тот удалил бы
+    // подготовленные на сервере операторы, ради которых соединения и держатся тёплыми.
+    // RESET ALL стоит лишнего обращения к серверу, поэтому выполняется, только если сессию могли изменить.
+    private void release(Connection physical, boolean broken, boolean sessionChanged) {
+        try {
+            if (broken || closed || physical.isClosed()) {
+                closeQuietly(physical);
+                return;
+            }
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            if (physical.isReadOnly()) {
+                physical.setReadOnly(false);
+            }
+            if (sessionChanged) {
+                try (Statement stmt = physical.createStatement()) {
+                    stmt.execute("RESET ALL");
+                }
+            }
+            physical.clearWarnings();
+            synchronized (idle) {
+                // LIFO: самые "тёплые" соединения выдаются первыми, остальные успевают истечь
+                idle.addFirst(new IdleConnection(physical, System.nanoTime()));
+            }
+        } catch (SQLException e) {
+            closeQuietly(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void evictIdle() {
+        List<Connection> expired = new ArrayList<>();
+        long now = System.nanoTime();
+        synchronized (idle) {
+            Iterator<IdleConnection> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                IdleConnection candidate = it.next();
+                if (now - candidate.releasedAt() <= idleTimeoutNanos) {
+                    break;
+                }
+                expired.add(candidate.connection());
+                it.remove();
+            }
+        }
+        expired.forEach(ConnectionPool::closeQuietly);
+    }
+
+    public int idleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        evictionTask.cancel(false);
+        List<Connection> toClose = new ArrayList<>();
+        synchronized (idle) {
+            idle.forEach(candidate -> toClose.add(candidate.connection()));
+            idle.clear();
+        }
+        toClose.forEach(ConnectionPool::closeQuietly);
+    }
+
+    private Connection wrap(Connection physical) {
+        return (Connection) Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new PooledConnectionHandler(physical));
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private class PooledConnectionHandler implements InvocationHandler {
+        private final Connection physical;
+        private boolean returned = false;
+        private boolean broken = false;
+        private boolean sessionChanged = false;
+
+        PooledConnectionHandler(Connection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(physical, broken, sessionChanged);
+                    }
+                    return null;
+                // Текст запросов Statement заранее неизвестен, поэтому любое его создание считается изменением сессии
+                case "createStatement", "setTransactionIsolation", "setSchema", "setCatalog":
+                    sessionChanged = true;
+                    break;
+                case "prepareStatement", "prepareCall":
+                    if (args != null && args[0] instanceof String sql && SESSION_SQL.matcher(sql).find()) {
+                        sessionChanged = true;
+                    }
+                    break;
+                case "isClosed":
+                    return returned || physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + url + "]";
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("Соединение уже возвращено в пул");
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException sqlException && isFatal(sqlException)) {
+                    broken = true;
+                }
+                throw cause;
+            }
+        }
+
+        private boolean isFatal(SQLException e) {
+            String state = e.getSQLState();
+            return state != null && (state.startsWith("08") || state.equals("57P01"));
+        }
+    }
+}
@@ -1,63 +1,264 @@
 package org.example;
 
+import org.postgresql.core.Utils;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.*;
+import java.time.Duration;
+import java.time.Year;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 
-public class Database {
+public class Database implements AutoCloseable {
     private String username;
     private String password;
     private String role;
 
-    private String currentDatabase = null;
-    private static final String ADMIN_POSTGRES_URL = "jdbc:postgresql://localhost:5432/postgres";
+    private volatile String currentDatabase = null;
+    // Адреса задаются свойствами -Dcar_rental.primaryUrl и -Dcar_rental.replicaUrl (без имени базы)
+    private static final String DEFAULT_SERVER_URL = "jdbc:postgresql://localhost:5432/";
+    private static final String PRIMARY_URL_PROPERTY = "car_rental.primaryUrl";
+    private static final String REPLICA_URL_PROPERTY = "car_rental.replicaUrl";
+    // Порог подготовки можно переопределить -Dcar_rental.prepareThreshold, например для сравнения в бенчмарке
+    private static final String PREPARE_THRESHOLD_PROPERTY = "car_rental.prepareThreshold";
+
+    private static final String GUEST_DATABASE = "car_rental";
+    private static final int SNAPSHOT_FETCH_SIZE = 10_000;
+    static final int MAX_SEARCH_PAGE = 1000;
+    private static final int MAX_DELTA_ROWS = 50_000;
+    private static final int PARTITION_YEARS_BACK = 10;
+    private static final String UNDEFINED_TABLE = "42P01";
+    // После стольких выполнений PgJDBC переходит на именованный серверный оператор
+    private static final String PREPARE_THRESHOLD = "2";
+    private static final String STATEMENT_CACHE_QUERIES = "256";
+    private static final String TENANTS_TABLE = "car_rental_tenants";
+    private static final String TEMPLATE_DATABASE = "car_rental_template";
+    // Версия в метке меняется вместе с составом шаблона, чтобы старые шаблоны пересобрались и при том же скрипте
+    private static final String TEMPLATE_COMMENT_PREFIX = "car_rental_script:v2:";
+
+    private final Map<String, ConnectionPool> pools;
+    private final String serverUrl;
+    private volatile ReplicaRouter replica;
+    private final DatabaseResolver resolver;
+    private volatile QueryCache cache = null;
+    private volatile WriteBehindQueue writeBehind = null;
+    private final DatabaseMetrics metrics;
+    private final int poolSize;
+    // false у представлений forTenant: пулы и метрики принадлежат исходному объекту
+    private final boolean ownsResources;
+
+    @FunctionalInterface
+    public interface TenantCall<T> {
+        T call(Database tenant) throws Exception;
+    }
 
     public Database(String username, String password, String role) {
+        this(username, password, role, ConnectionPool.DEFAULT_MAX_SIZE);
+    }
+
+    public Database(String username, String password, String role, int poolSize) {
         this.username = username;
         this.password = password;
         this.role = role;
+        this.poolSize = poolSize;
+        this.pools = new ConcurrentHashMap<>();
+        this.metrics = new DatabaseMetrics();
+        this.ownsResources = true;
+        this.serverUrl = serverUrl(System.getProperty(PRIMARY_URL_PROPERTY, DEFAULT_SERVER_URL));
+        this.resolver = new DatabaseResolver(pool(adminUrl()));
+        String replicaUrl = System.getProperty(REPLICA_URL_PROPERTY);
+        if (replicaUrl != null && !replicaUrl.isBlank()) {
+            useReplica(replicaUrl, ReplicaRouter.DEFAULT_MAX_LAG, ReplicaRouter.DEFAULT_STICKINESS);
+        }
+        metrics.register();
+    }
+
+    private Database(Database parent, String dbName) {
+        this.username = parent.username;
+        this.password = parent.password;
+        this.role = parent.role;
+        this.poolSize = parent.poolSize;
+        this.pools = parent.pools;
+        this.serverUrl = parent.serverUrl;
+        this.replica = parent.replica;
+        this.metrics = parent.metrics;
+        this.resolver = parent.resolver;
+        this.cache = parent.cache;
+        this.ownsResources = false;
+        this.currentDatabase = dbName;
+    }
+
+    private static String serverUrl(String url) {
+        return url.endsWith("/") ? url : url + "/";
+    }
+
+    private String adminUrl() {
+        return serverUrl + "postgres";
+    }
+
+    // Чтения (гостевые и все SELECT) уходят на реплику; запись, DDL и журнал изменений — всегда на primary
+    public void useReplica(String replicaServerUrl, Duration maxLag, Duration stickiness) {
+        replica = new ReplicaRouter(serverUrl(replicaServerUrl), maxLag, stickiness);
+    }
+
+    public ReplicaRouter getReplica() {
+        return replica;
+    }
+
+    public DatabaseMetrics getMetrics() {
+        return metrics;
     }
 
     private boolean databaseExists(String dbName) throws SQLException {
-        String checkDbQuery = "SELECT 1 FROM pg_database WHERE datname = ?";
+        return metrics.record("databaseExists", sample -> resolver.exists(dbName));
+    }
 
-        try (Connection conn = DriverManager.getConnection(ADMIN_POSTGRES_URL, username, password);
-             PreparedStatement stmt = conn.prepareStatement(checkDbQuery)) {
+    private Properties connectionProperties() {
+        return connectionProperties(username, password);
+    }
 
-            stmt.setString(1, dbName);
+    static Properties connectionProperties(String username, String password) {
+        Properties props = new Properties();
+        props.setProperty("user", username);
+        props.setProperty("password", password);
+        // Кэш подготовленных запросов PgJDBC живёт в физическом соединении, а пул держит соединения тёплыми
+        props.setProperty("prepareThreshold", System.getProperty(PREPARE_THRESHOLD_PROPERTY, PREPARE_THRESHOLD));
+        props.setProperty("preparedStatementCacheQueries", STATEMENT_CACHE_QUERIES);
+        return props;
+    }
 
-            ResultSet rs = stmt.executeQuery();
-            boolean exists = rs.next();
-            return exists;
+    private ConnectionPool pool(String url) {
+        return pools.computeIfAbsent(url, key -> new ConnectionPool(key, connectionProperties(), poolSize,
+                ConnectionPool.DEFAULT_IDLE_TIMEOUT, ConnectionPool.DEFAULT_ACQUIRE_TIMEOUT));
+    }
+
+    private void closePool(String dbName) {
+        ConnectionPool pool = pools.remove(serverUrl + dbName);
+        if (pool != null) {
+            pool.close();
+        }
+        ReplicaRouter r = replica;
+        ConnectionPool replicaPool = r != null ? pools.remove(r.getServerUrl() + dbName) : null;
+        if (replicaPool != null) {
+            replicaPool.close();
+        }
+    }
+
+    private Connection connect(String dbName) throws SQLException {
+        try {
+            return pool(serverUrl + dbName).getConnection();
+        } catch (SQLException e) {
+            if (DatabaseResolver.isMissingDatabase(e)) {
+                resolver.invalidate(dbName);
+                closePool(dbName);
+            }
+            throw e;
         }
     }
 
+    public int getServerVersionNum() {
+        return resolver.getServerVersionNum();
+    }
+
     private Connection getConnection(boolean usePostgres) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection conn = openConnection(usePostgres);
+            metrics.recordAcquire(System.nanoTime() - start, null);
+            return conn;
+        } catch (SQLException e) {
+            metrics.recordAcquire(System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+
+    // Соединение с primary конкретной базы, а не текущей: нужно тем, кто запомнил базу заранее
+    private Connection getConnection(String dbName) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection conn = connect(dbName);
+            metrics.recordAcquire(System.nanoTime() - start, null);
+            return conn;
+        } catch (SQLException e) {
+            metrics.recordAcquire(System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+
+    // Соединение для чтения: с реплики, если она настроена, доступна, не отстаёт и сессия недавно не писала.
+    // Во всех остальных случаях — обычное соединение с primary.
+    private Connection getReadConnection() throws SQLException {
+        ReplicaRouter r = replica;
+        String dbName = getTargetDatabase();
+        if (r == null || dbName == null || !r.isReadable()) {
+            return getConnection(false);
+        }
+
+        long start = System.nanoTime();
+        Connection conn;
+        try {
+            conn = pool(r.getServerUrl() + dbName).getConnection();
+        } catch (SQLException e) {
+            metrics.recordAcquire(System.nanoTime() - start, e);
+            r.markUnavailable();
+            return getConnection(false);
+        }
+        try {
+            if (r.needsLagCheck() && !r.checkLag(conn)) {
+                conn.close();
+                return getConnection(false);
+            }
+        } catch (SQLException e) {
+            conn.close();
+            r.markUnavailable();
+            return getConnection(false);
+        }
+        metrics.recordAcquire(System.nanoTime() - start, null);
+        return conn;
+    }
+
+    private Connection openConnection(boolean usePostgres) throws SQLException {
         if (role.equals("admin")) {
             if (usePostgres) {
-                return DriverManager.getConnection(ADMIN_POSTGRES_URL, username, password);
+                return pool(adminUrl()).getConnection();
             } else if (currentDatabase != null) {
-                String dbUrl = "jdbc:postgresql://localhost:5432/" + currentDatabase;
-                return DriverManager.getConnection(dbUrl, username, password);
+                return connect(currentDatabase);
             } else {
                 throw new SQLException("Ошибка: база данных не была создана!");
             }
         }
 
         if (role.equals("guest")) {
-            String guestDbName = "car_rental";
-            if (!databaseExists(guestDbName)) {
-                throw new SQLException("Ошибка: база данных " + guestDbName + " не найдена!");
+            if (!databaseExists(GUEST_DATABASE)) {
+                throw new SQLException("Ошибка: база данных " + GUEST_DATABASE + " не найдена!");
             }
-            String dbUrl = "jdbc:postgresql://localhost:5432/" + guestDbName;
-
-            return DriverManager.getConnection(dbUrl, username, password);
+            return connect(GUEST_DATABASE);
         }
 
         throw new SQLException("Ошибка: неизвестная роль!");
@@ -65,7 +266,89 @@ public class Database {
 
 
 
+    public void enableCache(int maxEntries, Duration ttl) {
+        cache = new QueryCache(maxEntries, ttl);
+    }
+
+    public QueryCache.Stats getCacheStats() {
+        QueryCache c = cache;
+        return c == null ? null : c.stats();
+    }
+
+    public String getTargetDatabase() {
+        return role.equals("guest") ? GUEST_DATABASE : currentDatabase;
+    }
+
+    private <T> T cached(String key, Set<String> tags, QueryCache.Loader<T> loader) throws SQLException {
+        QueryCache c = cache;
+        if (c == null) {
+            return loader.load();
+        }
+        return c.get(getTargetDatabase() + ":" + key, tags, loader);
+    }
+
+    // Любое чтение cars помечено тегом "<db>:cars"; чтения по всей таблице ещё и ":scan", поиск по модели — ":model=<model>"
+    private Set<String> scanTags() {
+        String db = getTargetDatabase();
+        return Set.of(db + ":cars", db + ":cars:scan");
+    }
+
+    private Set<String> modelTags(String model) {
+        String db = getTargetDatabase();
+        return Set.of(db + ":cars", db + ":cars:model=" + model);
+    }
+
+    // Вызывается после каждой записи: кроме кэша включает чтение своих записей с primary
+    private void invalidateCars(String dbName) {
+        markWrite();
+        invalidateCachedCars(dbName);
+    }
+
+    private void invalidateCachedCars(String dbName) {
+        QueryCache c = cache;
+        if (c != null) {
+            c.invalidate(dbName + ":cars");
+        }
+    }
+
+    private void markWrite() {
+        ReplicaRouter r = replica;
+        if (r != null) {
+            r.markWrite();
+        }
+    }
+
+    private void invalidateCarScans(String model) {
+        markWrite();
+        QueryCache c = cache;
+        if (c != null) {
+            String db = getTargetDatabase();
+            c.invalidate(db + ":cars:scan");
+            c.invalidate(db + ":cars:model=" + model);
+        }
+    }
+
     public void initializeDatabase() throws SQLException, IOException {
+        if (role.equals("admin")) {
+            initializeSystemProcedures();
+        }
+
+        try (Connection conn = getConnection(false)) {
+            if (SqlScriptRunner.runIfChanged(conn, loadProcedureScript(false))) {
+                try (PreparedStatement stmt = conn.prepareStatement("CALL public.sp_migrate_schema()")) {
+                    stmt.execute();
+                }
+            }
+        }
+    }
+
+    public void initializeSystemProcedures() throws SQLException, IOException {
+        try (Connection conn = getConnection(true)) {
+            SqlScriptRunner.runIfChanged(conn, loadProcedureScript(true));
+        }
+    }
+
+    private SqlScript loadProcedureScript(boolean system) throws IOException {
         InputStream in = getClass().getClassLoader().getResourceAsStream("stored_procedures.sql");
         if (in == null) {
             throw new IOException("Файл stored_procedures.sql не найден в ресурсах.");
@@ -77,18 +360,9 @@ public class Database {
         if (splitIndex < 0) {
             throw new IOException("Не найден разделитель для системных и пользовательских процедур.");
         }
-        String systemScript = script.substring(0, splitIndex);
-        String carRentalScript = script.substring(splitIndex);
-
-        if (role.equals("admin")) {
-            try (Connection conn = getConnection(true)) {
-                runSqlScript(conn, systemScript);
-            }
-        }
-
-        try (Connection conn = getConnection(false)) {
-            runSqlScript(conn, carRentalScript);
-        }
+        return system
+                ? new SqlScript("system", script.substring(0, splitIndex))
+                : new SqlScript("car_rental", script.substring(splitIndex));
     }
 
     private String readFromInputStream(InputStream inputStream) throws IOException {
@@ -102,135 +376,520 @@ public class Database {
         return resultStringBuilder.toString();
     }
 
-    private void runSqlScript(Connection conn, String script) throws SQLException {
-        StringBuilder command = new StringBuilder();
-        boolean inDollarBlock = false;
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                new java.io.ByteArrayInputStream(script.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.trim().isEmpty() || line.trim().startsWith("--")) {
-                    continue;
-                }
-                if (line.contains("$$")) {
-                    inDollarBlock = !inDollarBlock;
+    public void useDatabase(String dbName) throws SQLException {
+        if (!databaseExists(dbName)) {
+            throw new SQLException("Ошибка: база данных " + dbName + " не найдена!");
+        }
+        currentDatabase = dbName;
+    }
+
+    public void createDatabase(String dbName) throws SQLException {
+        try {
+            metrics.record("createDatabase", sample -> {
+                try (Connection conn = getConnection(true);
+                     PreparedStatement stmt = conn.prepareStatement("CALL public.sp_create_database(?)")) {
+                    stmt.setString(1, dbName);
+                    stmt.execute();
                 }
-                command.append(line).append("\n");
-                if (!inDollarBlock && line.trim().endsWith(";")) {
-                    String sql = command.toString();
-                    try (Statement stmt = conn.createStatement()) {
-                        stmt.execute(sql);
-                    } catch (SQLException e) {
-                        System.err.println("Ошибка выполнения команды:\n" + sql);
-                        throw e;
+                return null;
+            });
+            currentDatabase = dbName;
+        } finally {
+            resolver.invalidate(dbName);
+        }
+    }
+
+    // Создание базы копированием заранее инициализированного шаблона: один CREATE DATABASE ... TEMPLATE
+    // вместо dblink и повторного прогона скрипта. Шаблон пересобирается, только если изменился скрипт.
+    public void provisionDatabase(String dbName) throws SQLException, IOException {
+        requireAdmin();
+        String checksum = loadProcedureScript(false).checksum();
+        try {
+            metrics.record("provisionDatabase", sample -> {
+                try (Connection conn = getConnection(true)) {
+                    String lockKey = TEMPLATE_DATABASE;
+                    boolean templateExists;
+                    String templateComment;
+                    // Блокировка сессии держится до конца клонирования, чтобы шаблон не пересобрали посреди CREATE DATABASE
+                    try (PreparedStatement stmt = conn.prepareStatement("SELECT pg_advisory_lock(hashtext(?)), "
+                            + "d.oid IS NOT NULL, shobj_description(d.oid, 'pg_database') "
+                            + "FROM (SELECT 1) AS one LEFT JOIN pg_database d ON d.datname = ?")) {
+                        stmt.setString(1, lockKey);
+                        stmt.setString(2, TEMPLATE_DATABASE);
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            rs.next();
+                            templateExists = rs.getBoolean(2);
+                            templateComment = rs.getString(3);
+                        }
                     }
-                    command.setLength(0);
+                    try {
+                        if (!(TEMPLATE_COMMENT_PREFIX + checksum).equals(templateComment)) {
+                            rebuildTemplate(conn, templateExists, checksum);
+                        }
+                        try (Statement stmt = conn.createStatement()) {
+                            stmt.execute("CREATE DATABASE " + quoteIdentifier(dbName) + " TEMPLATE " + TEMPLATE_DATABASE);
+                        }
+                    } finally {
+                        try (PreparedStatement stmt = conn.prepareStatement("SELECT pg_advisory_unlock(hashtext(?))")) {
+                            stmt.setString(1, lockKey);
+                            stmt.execute();
+                        }
+                    }
+                    registerTenant(conn, dbName);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
+                return null;
+            });
+            currentDatabase = dbName;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            resolver.invalidate(dbName);
+        }
+    }
+
+    private void rebuildTemplate(Connection conn, boolean exists, String checksum) throws SQLException, IOException {
+        closePool(TEMPLATE_DATABASE);
+        try (Statement stmt = conn.createStatement()) {
+            if (exists) {
+                stmt.execute("ALTER DATABASE " + TEMPLATE_DATABASE + " IS_TEMPLATE false");
+                stmt.execute("DROP DATABASE " + TEMPLATE_DATABASE);
             }
-            if (command.length() > 0) {
-                try (Statement stmt = conn.createStatement()) {
-                    stmt.execute(command.toString());
-                }
+            stmt.execute("CREATE DATABASE " + TEMPLATE_DATABASE);
+        }
+        resolver.invalidate(TEMPLATE_DATABASE);
+
+        // Таблицы cars в шаблоне нет: её вид (обычная или секционированная по году) выбирается при createTable,
+        // а склонированная готовая таблица не дала бы создать секционированную
+        try (Database template = forTenant(TEMPLATE_DATABASE)) {
+            template.initializeDatabase();
+        } finally {
+            // Клонирование невозможно, пока к шаблону есть хоть одно соединение
+            closePool(TEMPLATE_DATABASE);
+        }
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER DATABASE " + TEMPLATE_DATABASE + " WITH IS_TEMPLATE true ALLOW_CONNECTIONS false");
+            stmt.execute("COMMENT ON DATABASE " + TEMPLATE_DATABASE + " IS '" + TEMPLATE_COMMENT_PREFIX + checksum + "'");
+        }
+    }
+
+    private void registerTenant(Connection conn, String dbName) throws SQLException, IOException {
+        try {
+            insertTenant(conn, dbName);
+        } catch (SQLException e) {
+            if (!UNDEFINED_TABLE.equals(e.getSQLState())) {
+                throw e;
             }
-        } catch (IOException e) {
-            throw new SQLException("Ошибка чтения SQL-скрипта", e);
+            // Реестр появляется вместе с системными процедурами
+            initializeSystemProcedures();
+            insertTenant(conn, dbName);
         }
     }
 
-    public void createDatabase(String dbName) throws SQLException {
-        try (Connection conn = getConnection(true);
-             Statement stmt = conn.createStatement()) {
-            String sql = "CALL public.sp_create_database('" + dbName.replace("'", "''") + "')";
-            stmt.execute(sql);
-            currentDatabase = dbName;
+    private static void insertTenant(Connection conn, String dbName) throws SQLException {
+        String sql = "INSERT INTO " + TENANTS_TABLE + " (name) VALUES (?) ON CONFLICT (name) DO NOTHING";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, dbName);
+            stmt.executeUpdate();
         }
     }
 
+    static String quoteIdentifier(String identifier) throws SQLException {
+        return Utils.escapeIdentifier(null, identifier).toString();
+    }
+
     public void dropDatabase(String dbName) throws SQLException {
-        try (Connection conn = getConnection(true);
-             Statement stmt = conn.createStatement()) {
-            String sql = "CALL public.sp_drop_database('" + dbName.replace("'", "''") + "')";
-            stmt.execute(sql);
+        closePool(dbName);
+        try {
+            metrics.record("dropDatabase", sample -> {
+                try (Connection conn = getConnection(true);
+                     PreparedStatement stmt = conn.prepareStatement("CALL public.sp_drop_database(?)")) {
+                    stmt.setString(1, dbName);
+                    stmt.execute();
+                }
+                return null;
+            });
+        } finally {
+            resolver.invalidate(dbName);
+            invalidateCars(dbName);
+        }
+    }
+
+    public List<String> listTenants() throws SQLException {
+        requireAdmin();
+        // Базы, удалённые в обход sp_drop_database, в реестре остаются, но не перечисляются
+        String sql = "SELECT t.name FROM " + TENANTS_TABLE + " t JOIN pg_database d ON d.datname = t.name ORDER BY t.name";
+        return metrics.record("listTenants", sample -> {
+            List<String> tenants = new ArrayList<>();
+            try (Connection conn = getConnection(true);
+                 PreparedStatement stmt = conn.prepareStatement(sql);
+                 ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    tenants.add(rs.getString(1));
+                }
+            } catch (SQLException e) {
+                if (UNDEFINED_TABLE.equals(e.getSQLState())) {
+                    return List.of();
+                }
+                throw e;
+            }
+            return tenants;
+        });
+    }
+
+    // Представление этого объекта, работающее с базой dbName; пулы, кэш и метрики общие
+    public Database forTenant(String dbName) {
+        return new Database(this, dbName);
+    }
+
+    public <T> List<TenantResult<T>> forEachTenant(int parallelism, TenantCall<T> call) throws SQLException {
+        return forTenants(listTenants(), parallelism, call);
+    }
+
+    // Каждая база обрабатывается в своём виртуальном потоке, одновременно — не больше parallelism.
+    // Ошибка одной базы не прерывает остальные и попадает в её TenantResult.
+    public <T> List<TenantResult<T>> forTenants(List<String> tenants, int parallelism, TenantCall<T> call) throws SQLException {
+        requireAdmin();
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Параллелизм должен быть положительным: " + parallelism);
+        }
+        Semaphore permits = new Semaphore(parallelism);
+        List<Future<TenantResult<T>>> futures = new ArrayList<>(tenants.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String tenant : tenants) {
+                futures.add(executor.submit(() -> runTenant(tenant, permits, call)));
+            }
+        }
+
+        List<TenantResult<T>> results = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Операция над базами прервана", e);
+            } catch (ExecutionException e) {
+                results.add(TenantResult.failure(tenants.get(i), e.getCause(), Duration.ZERO));
+            }
+        }
+        return results;
+    }
+
+    private <T> TenantResult<T> runTenant(String tenant, Semaphore permits, TenantCall<T> call) throws InterruptedException {
+        permits.acquire();
+        long start = System.nanoTime();
+        try (Database view = forTenant(tenant)) {
+            return TenantResult.success(tenant, call.call(view), Duration.ofNanos(System.nanoTime() - start));
+        } catch (Exception e) {
+            return TenantResult.failure(tenant, e, Duration.ofNanos(System.nanoTime() - start));
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void requireAdmin() throws SQLException {
+        if (!role.equals("admin")) {
+            throw new SQLException("Ошибка: операция доступна только администратору!");
         }
     }
 
     public void createTable() throws SQLException {
+        createTable(false);
+    }
+
+    public void createTable(boolean withModelTrigramIndex) throws SQLException {
+        createTable(withModelTrigramIndex, false);
+    }
+
+    // partitionedByYear: cars секционируется по году — секции на последние PARTITION_YEARS_BACK лет
+    // и следующий год, остальные годы попадают в секцию по умолчанию до вызова addYearPartition
+    public void createTable(boolean withModelTrigramIndex, boolean partitionedByYear) throws SQLException {
         if (currentDatabase == null) {
             throw new SQLException("Ошибка: база данных не была создана!");
         }
 
-        try (Connection conn = getConnection(false);
-             Statement stmt = conn.createStatement()) {
-            String sql = "CALL public.sp_create_table()";
-            stmt.execute(sql);
-        } catch (SQLException e) {
-            e.printStackTrace();
-            throw new SQLException("Error while creating table: " + e.getMessage());
+        metrics.record("createTable", sample -> {
+            String sql = partitionedByYear ? "CALL public.sp_create_partitioned_table(?, ?)" : "CALL public.sp_create_table()";
+            try (Connection conn = getConnection(false);
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                if (partitionedByYear) {
+                    int currentYear = Year.now().getValue();
+                    stmt.setInt(1, currentYear - PARTITION_YEARS_BACK);
+                    stmt.setInt(2, currentYear + 1);
+                }
+                stmt.execute();
+                if (withModelTrigramIndex) {
+                    try (PreparedStatement trgm = conn.prepareStatement("CALL public.sp_create_model_trgm_index()")) {
+                        trgm.execute();
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    public void addYearPartition(int year) throws SQLException {
+        metrics.record("addYearPartition", sample -> {
+            try (Connection conn = getConnection(false);
+                 PreparedStatement stmt = conn.prepareStatement("CALL public.sp_add_year_partition(?)")) {
+                stmt.setInt(1, year);
+                stmt.execute();
+            }
+            return null;
+        });
+    }
+
+    // Вместо DELETE по году секция отсоединяется (и при drop удаляется) без перебора строк
+    public void detachYearPartition(int year, boolean drop) throws SQLException {
+        try {
+            metrics.record("detachYearPartition", sample -> {
+                try (Connection conn = getConnection(false);
+                     PreparedStatement stmt = conn.prepareStatement("CALL public.sp_detach_year_partition(?, ?)")) {
+                    stmt.setInt(1, year);
+                    stmt.setBoolean(2, drop);
+                    stmt.execute();
+                }
+                return null;
+            });
+        } finally {
+            invalidateCars(getTargetDatabase());
         }
     }
 
+    public List<Integer> listYearPartitions() throws SQLException {
+        return metrics.record("listYearPartitions", sample -> {
+            List<Integer> years = new ArrayList<>();
+            try (Connection conn = getConnection(false);
+                 PreparedStatement stmt = conn.prepareStatement("SELECT year FROM public.sp_list_year_partitions()");
+                 ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    years.add(rs.getInt(1));
+                }
+            }
+            return years;
+        });
+    }
 
     public void clearTable() throws SQLException {
-        try (Connection conn = getConnection(false);
-             Statement stmt = conn.createStatement()) {
-            String sql = "CALL public.sp_clear_table()";
-            stmt.execute(sql);
+        try {
+            metrics.record("clearTable", sample -> {
+                try (Connection conn = getConnection(false);
+                     PreparedStatement stmt = conn.prepareStatement("CALL public.sp_clear_table()")) {
+                    stmt.execute();
+                }
+                return null;
+            });
         } catch (SQLException e) {
             e.printStackTrace();
-            throw new SQLException("Error while cleaning table: " + e.getMessage());
+            throw new SQLException("Error while cleaning table: " + e.getMessage(), e.getSQLState(), e);
+        } finally {
+            invalidateCars(getTargetDatabase());
         }
     }
 
-    public void insertCar(String brand, String model, int year, BigDecimal price) throws SQLException {
-        try (Connection conn = getConnection(false);
-             Statement stmt = conn.createStatement()) {
-            String sql = String.format(
-                    "CALL sp_insert_car('%s', '%s', %d, %s)",
-                    brand.replace("'", "''"),
-                    model.replace("'", "''"),
-                    year,
-                    price.toPlainString()
-            );
-            stmt.execute(sql);
+    // Очистка без TRUNCATE и его ACCESS EXCLUSIVE: строки удаляются порциями с паузами
+    public ChunkedDeleter.Progress clearTable(ChunkedDeleter.Options options, Consumer<ChunkedDeleter.Progress> listener)
+            throws SQLException {
+        try {
+            return metrics.record("clearTableChunked", sample -> {
+                try (Connection conn = getConnection(false)) {
+                    return new ChunkedDeleter(conn, options, listener).deleteAll();
+                }
+            });
+        } finally {
+            invalidateCars(getTargetDatabase());
+        }
+    }
 
+    // Отложенная запись: insertCarLater/updateCarLater ставят изменение в очередь, а одна транзакция
+    // фиксирует сразу пачку. Без включённой очереди те же методы пишут синхронно.
+    public void enableWriteBehind(WriteBehindQueue.Options options) {
+        disableWriteBehind();
+        // Запись привязывается к базе в момент постановки и пишется в неё, даже если текущая база сменилась
+        writeBehind = new WriteBehindQueue(this::getConnection, metrics, options, this::invalidateCars);
+    }
+
+    public void disableWriteBehind() {
+        WriteBehindQueue q = writeBehind;
+        writeBehind = null;
+        if (q != null) {
+            q.close();
+        }
+    }
+
+    public CompletableFuture<Void> insertCarLater(String brand, String model, int year, BigDecimal price) {
+        WriteBehindQueue q = writeBehind;
+        String dbName = getTargetDatabase();
+        if (q != null && dbName != null) {
+            return q.insertCar(dbName, brand, model, year, price);
+        }
+        return completeNow(() -> insertCar(brand, model, year, price));
+    }
+
+    public CompletableFuture<Void> updateCarLater(int id, String brand, String model, int year, BigDecimal price) {
+        WriteBehindQueue q = writeBehind;
+        String dbName = getTargetDatabase();
+        if (q != null && dbName != null) {
+            return q.updateCar(dbName, id, brand, model, year, price);
+        }
+        return completeNow(() -> updateCar(id, brand, model, year, price));
+    }
+
+    @FunctionalInterface
+    private interface Mutation {
+        void run() throws SQLException;
+    }
+
+    private static CompletableFuture<Void> completeNow(Mutation mutation) {
+        try {
+            mutation.run();
+            return CompletableFuture.completedFuture(null);
+        } catch (SQLException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public void insertCar(String brand, String model, int year, BigDecimal price) throws SQLException {
+        try {
+            metrics.record("insertCar", sample -> {
+                try (Connection conn = getConnection(false);
+                     PreparedStatement stmt = conn.prepareStatement("CALL sp_insert_car(?, ?, ?, ?)")) {
+                    stmt.setString(1, brand);
+                    stmt.setString(2, model);
+                    stmt.setInt(3, year);
+                    stmt.setBigDecimal(4, price);
+                    stmt.execute();
+                }
+                return null;
+            });
         } catch (SQLException e) {
             e.printStackTrace();
-            throw new SQLException("Error while adding car: " + e.getMessage());
+            throw new SQLException("Error while adding car: " + e.getMessage(), e.getSQLState(), e);
+        } finally {
+            // Ошибка может прийти уже после COMMIT (например, обрыв при ответе), поэтому кэш сбрасывается всегда
+            invalidateCarScans(model);
         }
     }
 
     public void updateCar(int id, String brand, String model, int year, BigDecimal price) throws SQLException {
-        try (Connection conn = getConnection(false);
-             Statement stmt = conn.createStatement()) {
-            String sql = String.format(
-                    "CALL sp_update_car(%d, '%s', '%s', %d, %s)",
-                    id,
-                    brand.replace("'", "''"),
-                    model.replace("'", "''"),
-                    year,
-                    price.toPlainString()
-            );
-            stmt.execute(sql);
+        try {
+            metrics.record("updateCar", sample -> {
+                try (Connection conn = getConnection(false);
+                     PreparedStatement stmt = conn.prepareStatement("CALL sp_update_car(?, ?, ?, ?, ?)")) {
+                    stmt.setInt(1, id);
+                    stmt.setString(2, brand);
+                    stmt.setString(3, model);
+                    stmt.setInt(4, year);
+                    stmt.setBigDecimal(5, price);
+                    stmt.execute();
+                }
+                return null;
+            });
+        } finally {
+            // Старая модель автомобиля неизвестна, поэтому сбрасываются и поиски по всем моделям
+            invalidateCars(getTargetDatabase());
         }
     }
 
     public void deleteCarByModel(String model) throws SQLException {
-        try (Connection conn = getConnection(false);
-             Statement stmt = conn.createStatement()) {
-            String sql = String.format(
-                    "CALL sp_delete_car_by_model('%s')",
-                    model.replace("'", "''")
-            );
-            stmt.execute(sql);
+        try {
+            metrics.record("deleteCarByModel", sample -> {
+                try (Connection conn = getConnection(false);
+                     PreparedStatement stmt = conn.prepareStatement("CALL sp_delete_car_by_model(?)")) {
+                    stmt.setString(1, model);
+                    stmt.execute();
+                }
+                return null;
+            });
+        } finally {
+            invalidateCarScans(model);
+        }
+    }
+
+
+    public ChunkedDeleter.Progress deleteCarByModel(String model, ChunkedDeleter.Options options,
+                                                    Consumer<ChunkedDeleter.Progress> listener) throws SQLException {
+        try {
+            return metrics.record("deleteCarByModelChunked", sample -> {
+                try (Connection conn = getConnection(false)) {
+                    return new ChunkedDeleter(conn, options, listener).deleteByModel(model);
+                }
+            });
+        } finally {
+            invalidateCarScans(model);
+        }
+    }
+
+    public CarImporter.ImportResult importCars(Path csv) throws SQLException, IOException {
+        try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            return metrics.record("importCsv", sample -> {
+                try (Connection conn = getConnection(false)) {
+                    return new CarImporter(conn).importCsv(reader);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            invalidateCars(getTargetDatabase());
         }
     }
 
+    public CarImporter.ImportResult importCars(Iterator<Car> cars) throws SQLException {
+        try {
+            return metrics.record("importCars", sample -> {
+                try (Connection conn = getConnection(false)) {
+                    return new CarImporter(conn).importCars(cars);
+                }
+            });
+        } finally {
+            invalidateCars(getTargetDatabase());
+        }
+    }
+
+    public CarUpserter.UpsertResult upsertCars(Iterable<Car> cars) throws SQLException {
+        try {
+            return metrics.record("upsertCars", sample -> {
+                try (Connection conn = getConnection(false)) {
+                    return new CarUpserter(conn).upsert(cars);
+                }
+            });
+        } finally {
+            invalidateCars(getTargetDatabase());
+        }
+    }
+
+    // filter == null выгружает всю таблицу, включая секции, если cars секционирована по году
+    public CarExporter.ExportResult exportCars(CarQuery filter, Path target, CarExporter.Format format, boolean gzip)
+            throws SQLException, IOException {
+        try {
+            return metrics.record("exportCars", sample -> {
+                try (Connection conn = getReadConnection()) {
+                    CarExporter.ExportResult result = new CarExporter(conn).export(filter, target, format, gzip);
+                    sample.rows(result.rows(), result.bytes());
+                    return result;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
 
     public List<Object[]> searchCar(String model) throws SQLException {
+        return cached("searchCar:" + model, modelTags(model),
+                () -> metrics.record("searchCar", sample -> Collections.unmodifiableList(fetchSearchCar(model, sample))));
+    }
+
+    private List<Object[]> fetchSearchCar(String model, DatabaseMetrics.Sample sample) throws SQLException {
         List<Object[]> results = new ArrayList<>();
         String sql = "SELECT id, brand, model, year, price FROM cars WHERE model = ?";
 
-        try (Connection conn = getConnection(false);
+        try (Connection conn = getReadConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             stmt.setString(1, model);
@@ -245,6 +904,8 @@ public class Database {
                         rs.getBigDecimal("price")
                 };
                 results.add(row);
+                sample.row(2L * (((String) row[1]).length() + ((String) row[2]).length()) + Integer.BYTES * 2
+                        + DatabaseMetrics.sizeOf((BigDecimal) row[4]));
             }
         }
         return results;
@@ -252,8 +913,13 @@ public class Database {
 
 
     public List<String> viewCars() throws SQLException {
+        return cached("viewCars", scanTags(),
+                () -> metrics.record("viewCars", sample -> List.copyOf(fetchViewCars(sample))));
+    }
+
+    private List<String> fetchViewCars(DatabaseMetrics.Sample sample) throws SQLException {
         List<String> results = new ArrayList<>();
-        try (Connection conn = getConnection(false);
+        try (Connection conn = getReadConnection();
              CallableStatement stmt = conn.prepareCall("{ call sp_view_cars() }")) {
 
             boolean hasResults = stmt.execute();
@@ -266,11 +932,430 @@ public class Database {
                         String carModel = rs.getString("model");
                         int year = rs.getInt("year");
                         BigDecimal price = rs.getBigDecimal("price");
-                        results.add(id + " | " + brand + " | " + carModel + " | " + year + " | " + price);
+                        String line = id + " | " + brand + " | " + carModel + " | " + year + " | " + price;
+                        results.add(line);
+                        sample.row(2L * line.length());
                     }
                 }
             }
         }
         return results;
     }
-}
\ No newline at end of file
+
+    public List<Car> viewCarsPage(int afterId, int limit) throws SQLException {
+        return cached("viewCarsPage:" + afterId + ":" + limit, scanTags(),
+                () -> metrics.record("viewCarsPage", sample -> List.copyOf(fetchCarsPage(afterId, limit, sample))));
+    }
+
+    private List<Car> fetchCarsPage(int afterId, int limit, DatabaseMetrics.Sample sample) throws SQLException {
+        List<Car> results = new ArrayList<>(limit);
+        String sql = "SELECT id, brand, model, year, price FROM cars WHERE id > ? ORDER BY id LIMIT ?";
+
+        try (Connection conn = getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setFetchSize(limit);
+            stmt.setInt(1, afterId);
+            stmt.setInt(2, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Car car = mapCar(rs);
+                    results.add(car);
+                    sample.row(car);
+                }
+            }
+        }
+        return results;
+    }
+
+    public int seekCarId(int afterId, int offset) throws SQLException {
+        return cached("seekCarId:" + afterId + ":" + offset, scanTags(),
+                () -> metrics.record("seekCarId", sample -> fetchSeekCarId(afterId, offset)));
+    }
+
+    private int fetchSeekCarId(int afterId, int offset) throws SQLException {
+        String sql = "SELECT id FROM cars WHERE id > ? ORDER BY id OFFSET ? LIMIT 1";
+
+        try (Connection conn = getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, afterId);
+            stmt.setInt(2, offset);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : -1;
+            }
+        }
+    }
+
+    public int countCars() throws SQLException {
+        return cached("countCars", scanTags(), () -> metrics.record("countCars", sample -> fetchCountCars()));
+    }
+
+    private int fetchCountCars() throws SQLException {
+        try (Connection conn = getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT count(*) FROM cars");
+             ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    // Читает сводки, которые триггеры держат в актуальном состоянии: стоимость зависит от числа марок и лет, а не от размера парка
+    public FleetStats fleetStats() throws SQLException {
+        return cached("fleetStats", scanTags(), () -> metrics.record("fleetStats", this::fetchFleetStats));
+    }
+
+    private FleetStats fetchFleetStats(DatabaseMetrics.Sample sample) throws SQLException {
+        String sql = "SELECT 'brand' AS kind, brand AS key, cars, price_sum, price_min, price_max FROM car_stats_brand "
+                + "UNION ALL SELECT 'year', year::text, cars, price_sum, price_min, price_max FROM car_stats_year "
+                + "ORDER BY kind, key";
+        List<FleetStats.Group> byBrand = new ArrayList<>();
+        List<FleetStats.Group> byYear = new ArrayList<>();
+
+        try (Connection conn = getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                FleetStats.Group group = new FleetStats.Group(rs.getString("key"), rs.getLong("cars"),
+                        rs.getBigDecimal("price_sum"), rs.getBigDecimal("price_min"), rs.getBigDecimal("price_max"));
+                (rs.getString("kind").equals("brand") ? byBrand : byYear).add(group);
+                sample.row(2L * group.key().length() + Long.BYTES + DatabaseMetrics.sizeOf(group.priceSum())
+                        + DatabaseMetrics.sizeOf(group.minPrice()) + DatabaseMetrics.sizeOf(group.maxPrice()));
+            }
+        }
+        byYear.sort(Comparator.comparingInt(group -> Integer.parseInt(group.key())));
+        return new FleetStats(List.copyOf(byBrand), List.copyOf(byYear));
+    }
+
+    // Индексы автодополнения строятся из сводок по маркам и моделям, а не из cars, поэтому загрузка стоит
+    // O(число марок и моделей). Курсор журнала берётся в том же снимке, что и сводки: дальше индексы
+    // поправляются дельтами fetchChangesSince, которые читаются на primary, поэтому и сводки читаются там.
+    public SuggestionIndex.Baseline loadSuggestionBaseline() throws SQLException {
+        return metrics.record("loadSuggestionBaseline", sample -> {
+            try (Connection conn = getConnection(false)) {
+                conn.setAutoCommit(false);
+                try {
+                    try (PreparedStatement stmt = conn.prepareStatement("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ, READ ONLY")) {
+                        stmt.execute();
+                    }
+                    String cursor;
+                    try (PreparedStatement stmt = conn.prepareStatement("SELECT CASE WHEN to_regclass('cars_changes') IS NULL "
+                            + "THEN NULL ELSE pg_current_snapshot()::text END");
+                         ResultSet rs = stmt.executeQuery()) {
+                        rs.next();
+                        cursor = rs.getString(1);
+                    }
+                    PrefixIndex brands = fetchPrefixIndex(conn, "SELECT brand, cars FROM car_stats_brand", sample);
+                    PrefixIndex models = fetchPrefixIndex(conn, "SELECT model, cars FROM car_stats_model", sample);
+                    return new SuggestionIndex.Baseline(brands, models, cursor);
+                } finally {
+                    conn.rollback();
+                }
+            }
+        });
+    }
+
+    private static PrefixIndex fetchPrefixIndex(Connection conn, String sql, DatabaseMetrics.Sample sample) throws SQLException {
+        Map<String, Long> counts = new HashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                String value = rs.getString(1);
+                counts.put(value, rs.getLong(2));
+                sample.row(2L * value.length() + Long.BYTES);
+            }
+        }
+        return PrefixIndex.of(counts);
+    }
+
+    // Страницы идут в порядке query.comparator(); after — последняя строка предыдущей страницы или null для первой.
+    // Пагинация keyset по (ключ сортировки, id): следующая страница не зависит от сдвигов из-за вставок и удалений.
+    public FacetedSearchResult searchCars(CarQuery query, Car after) throws SQLException {
+        String cursor = after == null ? "first" : sortValue(query.getSortKey(), after) + "," + after.id();
+        return cached("searchCars:" + query.cacheKey() + ":" + cursor, scanTags(),
+                () -> metrics.record("searchCars", sample -> fetchSearchCars(query, after, sample)));
+    }
+
+    private static Object sortValue(CarQuery.SortKey key, Car car) {
+        return switch (key) {
+            case ID -> car.id();
+            case YEAR -> car.year();
+            case PRICE -> car.price();
+        };
+    }
+
+    private FacetedSearchResult fetchSearchCars(CarQuery query, Car after, DatabaseMetrics.Sample sample) throws SQLException {
+        List<Object> params = new ArrayList<>();
+        StringBuilder where = new StringBuilder("TRUE");
+        if (query.getBrand() != null) {
+            where.append(" AND brand = ?");
+            params.add(query.getBrand());
+        }
+        if (query.getModel() != null) {
+            where.append(" AND model = ?");
+            params.add(query.getModel());
+        }
+        if (query.getYearFrom() != null) {
+            where.append(" AND year >= ?");
+            params.add(query.getYearFrom());
+        }
+        if (query.getYearTo() != null) {
+            where.append(" AND year <= ?");
+            params.add(query.getYearTo());
+        }
+        if (query.getPriceFrom() != null) {
+            where.append(" AND price >= ?");
+            params.add(query.getPriceFrom());
+        }
+        if (query.getPriceTo() != null) {
+            where.append(" AND price <= ?");
+            params.add(query.getPriceTo());
+        }
+        int limit = Math.min(query.getLimit(), MAX_SEARCH_PAGE);
+        String column = query.getSortKey().name().toLowerCase(Locale.ROOT);
+        String direction = query.isDescending() ? " DESC" : "";
+        String seek = "TRUE";
+        if (after != null) {
+            String op = query.isDescending() ? " < " : " > ";
+            if (query.getSortKey() == CarQuery.SortKey.ID) {
+                seek = "id" + op + "?";
+            } else {
+                seek = "(" + column + ", id)" + op + "(?, ?)";
+                params.add(sortValue(query.getSortKey(), after));
+            }
+            params.add(after.id());
+        }
+        params.add(limit);
+        String order = query.getSortKey() == CarQuery.SortKey.ID
+                ? "id" + direction
+                : column + direction + ", id" + direction;
+
+        // Страница и все фасеты считаются по одному CTE за один запрос
+        String yearBucket = "year / " + FacetedSearchResult.YEAR_BUCKET + " * " + FacetedSearchResult.YEAR_BUCKET;
+        String sql = "WITH f AS (SELECT id, brand, model, year, price FROM cars WHERE " + where + "), "
+                + "page AS (SELECT * FROM f WHERE " + seek + " ORDER BY " + order + " LIMIT ?) "
+                + "SELECT 'car' AS kind, id, brand, model, year, price, NULL::numeric AS price_max, NULL::bigint AS cnt FROM page "
+                + "UNION ALL SELECT 'brand', NULL, brand, NULL, NULL, NULL, NULL, count(*) FROM f GROUP BY brand "
+                + "UNION ALL SELECT 'year', NULL, NULL, NULL, " + yearBucket + ", NULL, NULL, count(*) FROM f GROUP BY " + yearBucket + " "
+                + "UNION ALL SELECT 'total', NULL, NULL, NULL, NULL, min(price), max(price), count(*) FROM f";
+
+        List<Car> cars = new ArrayList<>(limit);
+        Map<String, Long> brandCounts = new LinkedHashMap<>();
+        Map<Integer, Long> yearCounts = new TreeMap<>();
+        long total = 0;
+        BigDecimal minPrice = null;
+        BigDecimal maxPrice = null;
+
+        try (Connection conn = getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.size(); i++) {
+                stmt.setObject(i + 1, params.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    switch (rs.getString("kind")) {
+                        case "car" -> {
+                            Car car = mapCar(rs);
+                            cars.add(car);
+                            sample.row(car);
+                        }
+                        case "brand" -> brandCounts.put(rs.getString("brand"), rs.getLong("cnt"));
+                        case "year" -> yearCounts.put(rs.getInt("year"), rs.getLong("cnt"));
+                        case "total" -> {
+                            total = rs.getLong("cnt");
+                            minPrice = rs.getBigDecimal("price");
+                            maxPrice = rs.getBigDecimal("price_max");
+                        }
+                        default -> throw new SQLException("Неизвестный тип строки в результате поиска");
+                    }
+                }
+            }
+        }
+
+        // UNION ALL не сохраняет порядок страницы
+        cars.sort(query.comparator());
+        Map<String, Long> brandsByCount = new LinkedHashMap<>();
+        brandCounts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .forEach(e -> brandsByCount.put(e.getKey(), e.getValue()));
+        return new FacetedSearchResult(List.copyOf(cars), total, Collections.unmodifiableMap(brandsByCount),
+                Collections.unmodifiableMap(yearCounts), minPrice, maxPrice);
+    }
+
+    public CarSnapshot loadCarSnapshot() throws SQLException {
+        return metrics.record("loadCarSnapshot", this::fetchCarSnapshot);
+    }
+
+    private CarSnapshot fetchCarSnapshot(DatabaseMetrics.Sample sample) throws SQLException {
+        CarSnapshot.Builder builder = CarSnapshot.builder();
+        String sql = "SELECT id, brand, model, year, price FROM cars ORDER BY id";
+
+        try (Connection conn = getReadConnection()) {
+            // Курсор на стороне сервера работает только внутри транзакции
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setFetchSize(SNAPSHOT_FETCH_SIZE);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        String brand = rs.getString(2);
+                        String model = rs.getString(3);
+                        BigDecimal price = rs.getBigDecimal(5);
+                        builder.add(rs.getInt(1), brand, model, rs.getInt(4), price);
+                        sample.row(2L * (brand.length() + model.length()) + Integer.BYTES * 2 + DatabaseMetrics.sizeOf(price));
+                    }
+                }
+            } finally {
+                conn.rollback();
+            }
+        }
+        return builder.build();
+    }
+
+    // Подсчёт и снимок берутся одним запросом на primary: дельты читаются оттуда же,
+    // а снимок реплики с транзакциями primary не сравним
+    public CarDelta.Baseline loadChangeBaseline() throws SQLException {
+        String sql = "SELECT count(*), CASE WHEN to_regclass('cars_changes') IS NULL THEN NULL "
+                + "ELSE pg_current_snapshot()::text END FROM cars";
+        return metrics.record("loadChangeBaseline", sample -> {
+            try (Connection conn = getConnection(false);
+                 PreparedStatement stmt = conn.prepareStatement(sql);
+                 ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return new CarDelta.Baseline(rs.getInt(1), rs.getString(2));
+            }
+        });
+    }
+
+    public CarDelta fetchChangesSince(String since) throws SQLException {
+        return metrics.record("fetchChangesSince", sample -> fetchChanges(since, sample));
+    }
+
+    // Новые изменения — строки журнала, чья транзакция не видна в снимке since и видна в текущем.
+    // Незакоммиченная транзакция в текущий снимок не попадает и будет прочитана следующим вызовом,
+    // сколько бы она ни длилась; откаченная не видна ни в одном снимке.
+    private CarDelta fetchChanges(String since, DatabaseMetrics.Sample sample) throws SQLException {
+        String sql = "SELECT car_id, op, brand, model, year, price, old_brand, old_model FROM cars_changes "
+                + "WHERE xid >= pg_snapshot_xmin(?::pg_snapshot) AND NOT pg_visible_in_snapshot(xid, ?::pg_snapshot) "
+                + "ORDER BY version LIMIT ?";
+
+        Map<Integer, Boolean> existedBefore = new LinkedHashMap<>();
+        Map<Integer, Car> latest = new HashMap<>();
+        Map<String, Long> brandCounts = new HashMap<>();
+        Map<String, Long> modelCounts = new HashMap<>();
+        boolean countsKnown = true;
+        String cursor;
+
+        try (Connection conn = getConnection(false)) {
+            // Все запросы видят один снимок, и он же становится следующим курсором
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ, READ ONLY")) {
+                    stmt.execute();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("SELECT pg_current_snapshot()::text, "
+                        + "pruned_xid >= pg_snapshot_xmin(?::pg_snapshot) FROM cars_changes_horizon")) {
+                    stmt.setString(1, since);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        rs.next();
+                        cursor = rs.getString(1);
+                        // Удалённые из журнала строки могли быть не видны в снимке since: восстановить их нельзя
+                        if (rs.getBoolean(2)) {
+                            return CarDelta.reset(cursor);
+                        }
+                    }
+                }
+
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setString(1, since);
+                    stmt.setString(2, since);
+                    stmt.setInt(3, MAX_DELTA_ROWS + 1);
+                    int rows = 0;
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            if (++rows > MAX_DELTA_ROWS) {
+                                return CarDelta.reset(cursor);
+                            }
+                            String op = rs.getString("op");
+                            if (op.equals("T")) {
+                                return CarDelta.reset(cursor);
+                            }
+                            // Изменения одной строки упорядочены по version: вторая транзакция ждёт
+                            // блокировку строки до COMMIT первой и получает номер после неё
+                            int carId = rs.getInt("car_id");
+                            existedBefore.putIfAbsent(carId, !op.equals("I"));
+                            Car car = op.equals("D") ? null : mapCar(carId, rs);
+                            latest.put(carId, car);
+                            // Каждая строка журнала снимает автомобиль со старых марки и модели и ставит на новые
+                            if (!op.equals("I")) {
+                                String oldModel = rs.getString("old_model");
+                                if (oldModel == null) {
+                                    countsKnown = false;
+                                } else {
+                                    brandCounts.merge(rs.getString("old_brand"), -1L, Long::sum);
+                                    modelCounts.merge(oldModel, -1L, Long::sum);
+                                }
+                            }
+                            if (car != null) {
+                                brandCounts.merge(car.brand(), 1L, Long::sum);
+                                modelCounts.merge(car.model(), 1L, Long::sum);
+                            }
+                            sample.row(car == null ? Integer.BYTES : DatabaseMetrics.sizeOf(car));
+                        }
+                    }
+                }
+            } finally {
+                conn.rollback();
+            }
+        }
+
+        List<Car> added = new ArrayList<>();
+        List<Car> updated = new ArrayList<>();
+        List<Integer> removed = new ArrayList<>();
+        existedBefore.forEach((carId, existed) -> {
+            Car car = latest.get(carId);
+            if (car != null) {
+                (existed ? updated : added).add(car);
+            } else if (existed) {
+                removed.add(carId);
+            }
+        });
+        if (!countsKnown) {
+            return new CarDelta(cursor, false, added, updated, removed, null, null);
+        }
+        brandCounts.values().removeIf(count -> count == 0);
+        modelCounts.values().removeIf(count -> count == 0);
+        return new CarDelta(cursor, false, added, updated, removed, brandCounts, modelCounts);
+    }
+
+    public CarChangeListener listenForCarChanges(Runnable onChange) {
+        String dbName = getTargetDatabase();
+        // LISTEN на реплике не работает, поэтому уведомления всегда слушаются на primary
+        return new CarChangeListener(serverUrl + dbName, connectionProperties(), () -> {
+            // Изменения могли прийти от другого клиента, поэтому кэш чтений этой БД больше не актуален
+            invalidateCachedCars(dbName);
+            onChange.run();
+        });
+    }
+
+    private static Car mapCar(int id, ResultSet rs) throws SQLException {
+        return new Car(id, rs.getString("brand"), rs.getString("model"), rs.getInt("year"), rs.getBigDecimal("price"));
+    }
+
+    static Car mapCar(ResultSet rs) throws SQLException {
+        return new Car(
+                rs.getInt("id"),
+                rs.getString("brand"),
+                rs.getString("model"),
+                rs.getInt("year"),
+                rs.getBigDecimal("price"));
+    }
+
+    @Override
+    public void close() {
+        if (!ownsResources) {
+            return;
+        }
+        disableWriteBehind();
+        metrics.unregister();
+        pools.values().forEach(ConnectionPool::close);
+        pools.clear();
+    }
+}
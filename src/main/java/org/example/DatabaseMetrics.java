@@ -0,0 +1,196 @@
+package org.example;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class DatabaseMetrics implements DatabaseMetricsMXBean {
+    public static final String CONNECTION_ACQUIRE = "connection.acquire";
+
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    @FunctionalInterface
+    public interface Operation<T> {
+        T run(Sample sample) throws SQLException;
+    }
+
+    public record OperationStats(String name, long count, long errors, long rows, long bytes,
+                                 double meanMillis, double p50Millis, double p99Millis, double p999Millis,
+                                 double maxMillis) {
+        @Override
+        public String toString() {
+            return String.format("%-22s %8d %6d %10d %12d %9.2f %9.2f %9.2f %9.2f %9.2f",
+                    name, count, errors, rows, bytes, meanMillis, p50Millis, p99Millis, p999Millis, maxMillis);
+        }
+    }
+
+    // Счётчики строк и байт одного вызова; пишется только потоком, выполняющим операцию
+    public static final class Sample {
+        private long rows = 0;
+        private long bytes = 0;
+
+        public void row(long mappedBytes) {
+            rows++;
+            bytes += mappedBytes;
+        }
+
+        public void row(Car car) {
+            row(sizeOf(car));
+        }
+
+        public void rows(long count, long mappedBytes) {
+            rows += count;
+            bytes += mappedBytes;
+        }
+    }
+
+    private static final class Counters {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+
+        void reset() {
+            latency.reset();
+            errors.reset();
+            rows.reset();
+            bytes.reset();
+        }
+
+        OperationStats stats(String name) {
+            LatencyHistogram.Snapshot s = latency.snapshot();
+            return new OperationStats(name, s.count(), errors.sum(), rows.sum(), bytes.sum(),
+                    s.meanNanos() / 1e6, s.p50Nanos() / 1e6, s.p99Nanos() / 1e6, s.p999Nanos() / 1e6,
+                    s.maxNanos() / 1e6);
+        }
+    }
+
+    private final Map<String, Counters> operations = new ConcurrentHashMap<>();
+    private final Counters acquire = new Counters();
+    private final Map<String, LongAdder> errorsBySqlState = new ConcurrentHashMap<>();
+    private ObjectName objectName;
+
+    public <T> T record(String name, Operation<T> operation) throws SQLException {
+        Counters counters = operations.computeIfAbsent(name, key -> new Counters());
+        Sample sample = new Sample();
+        long start = System.nanoTime();
+        try {
+            return operation.run(sample);
+        } catch (SQLException e) {
+            counters.errors.increment();
+            recordError(e);
+            throw e;
+        } finally {
+            counters.latency.record(System.nanoTime() - start);
+            if (sample.rows > 0) {
+                counters.rows.add(sample.rows);
+                counters.bytes.add(sample.bytes);
+            }
+        }
+    }
+
+    public void recordAcquire(long nanos, SQLException error) {
+        acquire.latency.record(nanos);
+        if (error != null) {
+            acquire.errors.increment();
+            recordError(error);
+        }
+    }
+
+    private void recordError(SQLException e) {
+        String state = e.getSQLState() != null ? e.getSQLState() : "unknown";
+        errorsBySqlState.computeIfAbsent(state, key -> new LongAdder()).increment();
+    }
+
+    // Приблизительный объём данных строки после маппинга: символы строк в UTF-16 и числовые поля
+    static long sizeOf(Car car) {
+        return 2L * (length(car.brand()) + length(car.model())) + Integer.BYTES * 2 + sizeOf(car.price());
+    }
+
+    static long sizeOf(BigDecimal value) {
+        return value == null ? 0 : value.unscaledValue().bitLength() / 8 + 1 + Integer.BYTES;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    @Override
+    public List<OperationStats> getOperations() {
+        List<OperationStats> result = new ArrayList<>();
+        new TreeMap<>(operations).forEach((name, counters) -> result.add(counters.stats(name)));
+        return result;
+    }
+
+    @Override
+    public OperationStats getConnectionAcquire() {
+        return acquire.stats(CONNECTION_ACQUIRE);
+    }
+
+    @Override
+    public Map<String, Long> getErrorsBySqlState() {
+        Map<String, Long> result = new TreeMap<>();
+        errorsBySqlState.forEach((state, count) -> result.put(state, count.sum()));
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        operations.values().forEach(Counters::reset);
+        acquire.reset();
+        errorsBySqlState.clear();
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder(String.format("%-22s %8s %6s %10s %12s %9s %9s %9s %9s %9s%n",
+                "operation", "count", "errors", "rows", "bytes", "mean ms", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+        sb.append(getConnectionAcquire()).append('\n');
+        for (OperationStats stats : getOperations()) {
+            sb.append(stats).append('\n');
+        }
+        Map<String, Long> errors = getErrorsBySqlState();
+        if (!errors.isEmpty()) {
+            sb.append("\nОшибки по SQLState: ").append(errors).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public synchronized void register() {
+        if (objectName != null) {
+            return;
+        }
+        try {
+            ObjectName name = new ObjectName("org.example:type=DatabaseMetrics,instance=" + INSTANCES.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        } finally {
+            objectName = null;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.example;
+
+import java.util.List;
+import java.util.Map;
+
+public interface DatabaseMetricsMXBean {
+    List<DatabaseMetrics.OperationStats> getOperations();
+
+    DatabaseMetrics.OperationStats getConnectionAcquire();
+
+    Map<String, Long> getErrorsBySqlState();
+
+    void reset();
+}
@@ -0,0 +1,64 @@
+package org.example;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class DatabaseResolver {
+    private static final Duration MISSING_TTL = Duration.ofSeconds(5);
+    private static final String PROBE_QUERY =
+            "SELECT EXISTS (SELECT 1 FROM pg_database WHERE datname = ?), current_setting('server_version_num')::int";
+
+    private final ConnectionPool adminPool;
+    private final Map<String, Resolution> resolved = new ConcurrentHashMap<>();
+    private volatile int serverVersionNum = -1;
+
+    private record Resolution(boolean exists, long resolvedAt) {
+        boolean isFresh() {
+            return exists || System.nanoTime() - resolvedAt < MISSING_TTL.toNanos();
+        }
+    }
+
+    public DatabaseResolver(ConnectionPool adminPool) {
+        this.adminPool = adminPool;
+    }
+
+    public boolean exists(String dbName) throws SQLException {
+        Resolution cached = resolved.get(dbName);
+        if (cached != null && cached.isFresh()) {
+            return cached.exists();
+        }
+
+        try (Connection conn = adminPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(PROBE_QUERY)) {
+            stmt.setString(1, dbName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                boolean exists = rs.getBoolean(1);
+                serverVersionNum = rs.getInt(2);
+                resolved.put(dbName, new Resolution(exists, System.nanoTime()));
+                return exists;
+            }
+        }
+    }
+
+    public int getServerVersionNum() {
+        return serverVersionNum;
+    }
+
+    public void invalidate(String dbName) {
+        resolved.remove(dbName);
+    }
+
+    public void invalidateAll() {
+        resolved.clear();
+    }
+
+    public static boolean isMissingDatabase(SQLException e) {
+        return "3D000".equals(e.getSQLState());
+    }
+}
@@ -0,0 +1,19 @@
+package org.example;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+public record FacetedSearchResult(List<Car> cars,
+                                  long total,
+                                  Map<String, Long> brandCounts,
+                                  Map<Integer, Long> yearBucketCounts,
+                                  BigDecimal minPrice,
+                                  BigDecimal maxPrice) {
+    public static final int YEAR_BUCKET = 5;
+
+    // Курсор следующей страницы; null, если страница пуста
+    public Car lastCar() {
+        return cars.isEmpty() ? null : cars.get(cars.size() - 1);
+    }
+}
@@ -0,0 +1,17 @@
+package org.example;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+
+public record FleetStats(List<Group> byBrand, List<Group> byYear) {
+    public record Group(String key, long cars, BigDecimal priceSum, BigDecimal minPrice, BigDecimal maxPrice) {
+        public BigDecimal averagePrice() {
+            return cars == 0 ? BigDecimal.ZERO : priceSum.divide(BigDecimal.valueOf(cars), 2, RoundingMode.HALF_UP);
+        }
+    }
+
+    public long totalCars() {
+        return byBrand.stream().mapToLong(Group::cars).sum();
+    }
+}
@@ -0,0 +1,359 @@
+package org.example;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Консольный генератор нагрузки: N клиентов на виртуальных потоках вызывают Database напрямую.
+// При заданной частоте (--rate) задержка считается от запланированного момента запуска,
+// чтобы очередь перед медленным сервером попадала в перцентили, а не пряталась в паузах клиента.
+public class LoadGenerator {
+    public enum Operation { SEARCH, VIEW, PAGE, INSERT, UPDATE, DELETE }
+
+    private static final int SAMPLE_ROWS = 10_000;
+    private static final int PAGE_SIZE = 200;
+    private static final String LOAD_BRAND = "LoadTest";
+
+    public record Options(String user, String password, String role, String database, Map<Operation, Integer> mix,
+                          int clients, double rate, Duration warmup, Duration duration, int poolSize,
+                          String replicaUrl, String writeBehind) {
+
+        public static Options parse(String[] args) {
+            Map<String, String> values = new LinkedHashMap<>();
+            for (int i = 0; i < args.length; i++) {
+                if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Ожидалась пара --параметр значение: " + args[i]);
+                }
+                values.put(args[i].substring(2), args[++i]);
+            }
+            String role = values.getOrDefault("role", "admin");
+            int clients = Integer.parseInt(values.getOrDefault("clients", "16"));
+            Options options = new Options(
+                    values.getOrDefault("user", "postgres"),
+                    values.getOrDefault("password", "postgres"),
+                    role,
+                    values.getOrDefault("database", "car_rental"),
+                    parseMix(values.getOrDefault("mix", "search=60,view=5,insert=15,update=15,delete=5")),
+                    clients,
+                    Double.parseDouble(values.getOrDefault("rate", "0")),
+                    parseDuration(values.getOrDefault("warmup", "10s")),
+                    parseDuration(values.getOrDefault("duration", "60s")),
+                    Integer.parseInt(values.getOrDefault("pool", String.valueOf(ConnectionPool.DEFAULT_MAX_SIZE))),
+                    values.get("replica"),
+                    values.getOrDefault("write-behind", "off"));
+            if (options.clients < 1 || options.rate < 0 || options.duration.isZero()
+                    || !List.of("off", "on", "nosync").contains(options.writeBehind)) {
+                throw new IllegalArgumentException("Некорректные параметры нагрузки: " + options);
+            }
+            return options;
+        }
+
+        static Map<Operation, Integer> parseMix(String spec) {
+            Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+            for (String part : spec.split(",")) {
+                String[] kv = part.split("=");
+                if (kv.length != 2) {
+                    throw new IllegalArgumentException("Некорректная доля в --mix: " + part);
+                }
+                int weight = Integer.parseInt(kv[1].trim());
+                if (weight < 0) {
+                    throw new IllegalArgumentException("Доля не может быть отрицательной: " + part);
+                }
+                mix.put(Operation.valueOf(kv[0].trim().toUpperCase(Locale.ROOT)), weight);
+            }
+            if (mix.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+                throw new IllegalArgumentException("Сумма долей в --mix должна быть положительной");
+            }
+            return mix;
+        }
+
+        static Duration parseDuration(String text) {
+            String value = text.trim().toLowerCase(Locale.ROOT);
+            if (value.endsWith("ms")) {
+                return Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2)));
+            }
+            if (value.endsWith("m")) {
+                return Duration.ofMinutes(Long.parseLong(value.substring(0, value.length() - 1)));
+            }
+            if (value.endsWith("s")) {
+                value = value.substring(0, value.length() - 1);
+            }
+            return Duration.ofSeconds(Long.parseLong(value));
+        }
+    }
+
+    private final Database db;
+    private final Options options;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+    // Ошибки без SQLState (отказ очереди, сбой драйвера) — по классу исключения
+    private final Map<String, LongAdder> errorsByClass = new ConcurrentHashMap<>();
+    private final Queue<String> insertedModels = new ConcurrentLinkedQueue<>();
+    private final AtomicLong insertCounter = new AtomicLong();
+    private List<Integer> knownIds = List.of();
+    private List<String> knownModels = List.of();
+    private volatile boolean measuring = false;
+
+    public LoadGenerator(Database db, Options options) {
+        this.db = db;
+        this.options = options;
+        List<Operation> ops = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        int sum = 0;
+        for (Map.Entry<Operation, Integer> e : options.mix().entrySet()) {
+            if (e.getValue() > 0) {
+                sum += e.getValue();
+                ops.add(e.getKey());
+                weights.add(sum);
+            }
+        }
+        this.operations = ops.toArray(new Operation[0]);
+        this.cumulativeWeights = weights.stream().mapToInt(Integer::intValue).toArray();
+        for (Operation op : Operation.values()) {
+            latencies.put(op, new LatencyHistogram());
+            errors.put(op, new LongAdder());
+        }
+    }
+
+    public static void main(String[] args) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Использование: --load [--user U] [--password P] [--role admin|guest] [--database DB]"
+                    + " [--mix search=60,view=5,page=0,insert=15,update=15,delete=5] [--clients N] [--rate OPS]"
+                    + " [--warmup 10s] [--duration 60s] [--pool N]"
+                    + " [--replica jdbc:postgresql://host:port/] [--write-behind off|on|nosync]");
+            System.exit(2);
+            return;
+        }
+
+        try (Database db = new Database(options.user(), options.password(), options.role(), options.poolSize())) {
+            if (options.replicaUrl() != null) {
+                db.useReplica(options.replicaUrl(), ReplicaRouter.DEFAULT_MAX_LAG, ReplicaRouter.DEFAULT_STICKINESS);
+            }
+            if (options.role().equals("admin")) {
+                db.useDatabase(options.database());
+            }
+            if (!options.writeBehind().equals("off")) {
+                db.enableWriteBehind(WriteBehindQueue.Options.defaults()
+                        .withSynchronousCommit(options.writeBehind().equals("on")));
+            }
+            System.out.println(new LoadGenerator(db, options).run());
+        } catch (SQLException | InterruptedException e) {
+            System.err.println("Ошибка генератора нагрузки: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    public String run() throws SQLException, InterruptedException {
+        prepare();
+        long startAt = System.nanoTime();
+        long measureFrom = startAt + options.warmup().toNanos();
+        long endAt = measureFrom + options.duration().toNanos();
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        for (int i = 0; i < options.clients(); i++) {
+            executor.submit(() -> client(endAt));
+        }
+        executor.shutdown();
+
+        sleepUntil(measureFrom);
+        latencies.values().forEach(LatencyHistogram::reset);
+        errors.values().forEach(LongAdder::reset);
+        errorsByClass.clear();
+        db.getMetrics().reset();
+        measuring = true;
+
+        if (!executor.awaitTermination(options.duration().toSeconds() + 60, TimeUnit.SECONDS)) {
+            executor.shutdownNow();
+        }
+        measuring = false;
+        long elapsed = Math.max(System.nanoTime() - measureFrom, 1);
+        return report(elapsed);
+    }
+
+    // Выборка существующих id и моделей, чтобы поиск и обновление попадали в реальные строки
+    private void prepare() throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        List<String> models = new ArrayList<>();
+        int afterId = 0;
+        while (ids.size() < SAMPLE_ROWS) {
+            List<Car> page = db.viewCarsPage(afterId, PAGE_SIZE);
+            if (page.isEmpty()) {
+                break;
+            }
+            for (Car car : page) {
+                ids.add(car.id());
+                models.add(car.model());
+            }
+            afterId = page.get(page.size() - 1).id();
+        }
+        knownIds = List.copyOf(ids);
+        knownModels = models.isEmpty() ? List.of(LOAD_BRAND + "-0") : List.copyOf(models);
+    }
+
+    private void client(long endAt) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long interval = options.rate() > 0 ? (long) (options.clients() * 1e9 / options.rate()) : 0;
+        long next = System.nanoTime() + (interval > 0 ? random.nextLong(interval) : 0);
+
+        while (!Thread.currentThread().isInterrupted()) {
+            long intended;
+            if (interval > 0) {
+                intended = next;
+                next += interval;
+                sleepUntil(intended);
+            } else {
+                intended = System.nanoTime();
+            }
+            if (System.nanoTime() - endAt >= 0) {
+                return;
+            }
+
+            Operation op = pick(random);
+            boolean failed = false;
+            try {
+                execute(op, random);
+            } catch (SQLException e) {
+                failed = true;
+            } catch (RuntimeException e) {
+                // Непроверяемое исключение не должно молча останавливать клиента и занижать нагрузку
+                failed = true;
+                if (measuring) {
+                    errorsByClass.computeIfAbsent(e.getClass().getSimpleName(), key -> new LongAdder()).increment();
+                }
+            }
+            if (measuring) {
+                latencies.get(op).record(System.nanoTime() - intended);
+                if (failed) {
+                    errors.get(op).increment();
+                }
+            }
+        }
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private Operation pick(ThreadLocalRandom random) {
+        int r = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (r < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    private void execute(Operation op, ThreadLocalRandom random) throws SQLException {
+        switch (op) {
+            case SEARCH -> db.searchCar(knownModels.get(random.nextInt(knownModels.size())));
+            case VIEW -> db.viewCars();
+            case PAGE -> db.viewCarsPage(knownIds.isEmpty() ? 0 : knownIds.get(random.nextInt(knownIds.size())), PAGE_SIZE);
+            case INSERT -> {
+                String model = LOAD_BRAND + "-" + insertCounter.incrementAndGet();
+                await(db.insertCarLater(LOAD_BRAND, model, randomYear(random), randomPrice(random)));
+                insertedModels.add(model);
+            }
+            case UPDATE -> {
+                if (knownIds.isEmpty()) {
+                    execute(Operation.INSERT, random);
+                    return;
+                }
+                await(db.updateCarLater(knownIds.get(random.nextInt(knownIds.size())), LOAD_BRAND,
+                        knownModels.get(random.nextInt(knownModels.size())), randomYear(random), randomPrice(random)));
+            }
+            case DELETE -> {
+                // Удаляются только машины, вставленные этим прогоном, чтобы не разрушать исходные данные
+                String model = insertedModels.poll();
+                db.deleteCarByModel(model != null ? model : LOAD_BRAND + "-absent");
+            }
+        }
+    }
+
+    // Клиент ждёт COMMIT своей записи, поэтому задержка включает время ожидания пачки
+    private static void await(CompletableFuture<Void> write) throws SQLException {
+        try {
+            write.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException sql) {
+                throw sql;
+            }
+            throw new SQLException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static int randomYear(ThreadLocalRandom random) {
+        return 1990 + random.nextInt(35);
+    }
+
+    private static BigDecimal randomPrice(ThreadLocalRandom random) {
+        return BigDecimal.valueOf(random.nextLong(100_000, 10_000_000), 2);
+    }
+
+    private String report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Клиентов: %d, %s, прогрев %ds, измерение %.1fs, пул %d%n",
+                options.clients(), options.rate() > 0 ? "цель " + options.rate() + " оп/с" : "замкнутый цикл",
+                options.warmup().toSeconds(), seconds, options.poolSize()));
+        if (!options.writeBehind().equals("off")) {
+            sb.append("Отложенная запись: ").append(options.writeBehind()).append('\n');
+        }
+        sb.append(String.format("%-8s %9s %7s %10s %9s %9s %9s %9s %9s%n",
+                "op", "count", "errors", "ops/s", "mean ms", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+        long totalCount = 0;
+        long totalErrors = 0;
+        for (Operation op : Operation.values()) {
+            LatencyHistogram.Snapshot s = latencies.get(op).snapshot();
+            if (s.count() == 0) {
+                continue;
+            }
+            long errorCount = errors.get(op).sum();
+            totalCount += s.count();
+            totalErrors += errorCount;
+            sb.append(String.format("%-8s %9d %7d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    op.name().toLowerCase(Locale.ROOT), s.count(), errorCount, s.count() / seconds,
+                    s.meanNanos() / 1e6, s.p50Nanos() / 1e6, s.p99Nanos() / 1e6, s.p999Nanos() / 1e6,
+                    s.maxNanos() / 1e6));
+        }
+        sb.append(String.format("%-8s %9d %7d %10.1f%n", "total", totalCount, totalErrors, totalCount / seconds));
+        sb.append("\nВремя получения соединения: ").append(db.getMetrics().getConnectionAcquire()).append('\n');
+        Map<String, Long> states = db.getMetrics().getErrorsBySqlState();
+        if (!states.isEmpty()) {
+            sb.append("Ошибки по SQLState: ").append(states).append('\n');
+        }
+        if (!errorsByClass.isEmpty()) {
+            Map<String, Long> byClass = new LinkedHashMap<>();
+            errorsByClass.forEach((name, count) -> byClass.put(name, count.sum()));
+            sb.append("Прочие ошибки: ").append(byClass).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -1,9 +1,15 @@
 package org.example;
 
 import javax.swing.SwingUtilities;
+import java.util.Arrays;
 
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--load")) {
+            LoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         SwingUtilities.invokeLater(() -> {
             new CarRentalApp();
         });
@@ -0,0 +1,161 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Неизменяемый индекс для автодополнения: значения отсортированы по ключу в нижнем регистре,
+// поэтому все совпадения с префиксом лежат одним отрезком, который находится двумя двоичными поисками.
+// Изменения частот (adjust) дают новый индекс слиянием, без повторной сортировки всех значений.
+public final class PrefixIndex {
+    // Пара (ключ, значение) — тот же порядок, что у индекса
+    private static final Comparator<String[]> ENTRY_ORDER =
+            Comparator.<String[], String>comparing(entry -> entry[0]).thenComparing(entry -> entry[1]);
+
+    private static final PrefixIndex EMPTY = new PrefixIndex(new String[0], new String[0], new long[0]);
+
+    private final String[] keys;
+    private final String[] values;
+    private final long[] counts;
+
+    private PrefixIndex(String[] keys, String[] values, long[] counts) {
+        this.keys = keys;
+        this.values = values;
+        this.counts = counts;
+    }
+
+    public static PrefixIndex empty() {
+        return EMPTY;
+    }
+
+    public static PrefixIndex of(Map<String, Long> valueCounts) {
+        Integer[] order = new Integer[valueCounts.size()];
+        String[] rawValues = valueCounts.keySet().toArray(new String[0]);
+        String[] rawKeys = new String[rawValues.length];
+        for (int i = 0; i < rawValues.length; i++) {
+            rawKeys[i] = normalize(rawValues[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer, String>comparing(i -> rawKeys[i]).thenComparing(i -> rawValues[i]));
+
+        String[] keys = new String[order.length];
+        String[] values = new String[order.length];
+        long[] counts = new long[order.length];
+        for (int i = 0; i < order.length; i++) {
+            keys[i] = rawKeys[order[i]];
+            values[i] = rawValues[order[i]];
+            counts[i] = valueCounts.get(values[i]);
+        }
+        return new PrefixIndex(keys, values, counts);
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    // Новый индекс, где частота каждого значения из deltas изменена на его приращение: значения
+    // с частотой не больше нуля выпадают, новые встают на своё место. Слияние двух упорядоченных
+    // последовательностей стоит O(size + k log k) для k изменений.
+    public PrefixIndex adjust(Map<String, Long> deltas) {
+        if (deltas.isEmpty()) {
+            return this;
+        }
+        String[][] changes = new String[deltas.size()][];
+        int c = 0;
+        for (String value : deltas.keySet()) {
+            changes[c++] = new String[]{normalize(value), value};
+        }
+        Arrays.sort(changes, ENTRY_ORDER);
+
+        String[] newKeys = new String[keys.length + changes.length];
+        String[] newValues = new String[newKeys.length];
+        long[] newCounts = new long[newKeys.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < keys.length || j < changes.length) {
+            int cmp;
+            if (j == changes.length) {
+                cmp = -1;
+            } else if (i == keys.length) {
+                cmp = 1;
+            } else {
+                cmp = keys[i].compareTo(changes[j][0]);
+                if (cmp == 0) {
+                    cmp = values[i].compareTo(changes[j][1]);
+                }
+            }
+            String key;
+            String value;
+            long count;
+            if (cmp < 0) {
+                key = keys[i];
+                value = values[i];
+                count = counts[i++];
+            } else {
+                key = changes[j][0];
+                value = changes[j++][1];
+                count = deltas.get(value) + (cmp == 0 ? counts[i++] : 0);
+            }
+            if (count > 0) {
+                newKeys[n] = key;
+                newValues[n] = value;
+                newCounts[n++] = count;
+            }
+        }
+        return new PrefixIndex(Arrays.copyOf(newKeys, n), Arrays.copyOf(newValues, n), Arrays.copyOf(newCounts, n));
+    }
+
+    // Самые частые значения с данным префиксом (без учёта регистра), при равной частоте — по алфавиту
+    public List<String> suggest(String prefix, int limit) {
+        String key = normalize(prefix);
+        if (key.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        int from = lowerBound(key);
+        int to = lowerBound(key + Character.MAX_VALUE);
+
+        // Лучшие limit индексов держатся упорядоченными по убыванию частоты; без упаковки и кучи
+        // проход по отрезку в десятки тысяч значений занимает десятки микросекунд
+        int[] top = new int[Math.min(limit, to - from)];
+        int filled = 0;
+        for (int i = from; i < to; i++) {
+            if (filled == top.length && counts[i] <= counts[top[filled - 1]]) {
+                continue;
+            }
+            // При равной частоте раньше стоит меньший индекс, то есть значение раньше по алфавиту
+            int pos = filled < top.length ? filled++ : filled - 1;
+            while (pos > 0 && counts[top[pos - 1]] < counts[i]) {
+                top[pos] = top[pos - 1];
+                pos--;
+            }
+            top[pos] = i;
+        }
+        List<String> result = new ArrayList<>(filled);
+        for (int k = 0; k < filled; k++) {
+            result.add(values[top[k]]);
+        }
+        return result;
+    }
+
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static String normalize(String value) {
+        return value.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,81 @@
+package org.example;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+
+// Решает, можно ли отправить чтение на реплику: реплика доступна, её отставание не больше maxLag
+// и с последней записи этой сессии прошло больше stickiness (иначе читаем свои же записи с primary).
+public class ReplicaRouter {
+    public static final Duration DEFAULT_MAX_LAG = Duration.ofSeconds(5);
+    public static final Duration DEFAULT_STICKINESS = Duration.ofSeconds(5);
+    private static final Duration LAG_CHECK_INTERVAL = Duration.ofSeconds(1);
+    private static final Duration RETRY_AFTER_FAILURE = Duration.ofSeconds(10);
+
+    // Если всё полученное уже применено, реплика не отстаёт, даже когда запись на primary давно не было
+    private static final String LAG_QUERY = "SELECT CASE WHEN NOT pg_is_in_recovery() "
+            + "OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+            + "ELSE coalesce(extract(epoch FROM now() - pg_last_xact_replay_timestamp()), 0) END";
+
+    private final String serverUrl;
+    private final long maxLagNanos;
+    private final long stickinessNanos;
+    private volatile long lastWriteAt;
+    private volatile long lagCheckedAt;
+    private volatile long unavailableUntil;
+    private volatile boolean lagging = false;
+    private volatile double lagSeconds = 0;
+
+    public ReplicaRouter(String serverUrl, Duration maxLag, Duration stickiness) {
+        this.serverUrl = serverUrl.endsWith("/") ? serverUrl : serverUrl + "/";
+        this.maxLagNanos = maxLag.toNanos();
+        this.stickinessNanos = stickiness.toNanos();
+        long now = System.nanoTime();
+        this.lastWriteAt = now - stickinessNanos;
+        this.lagCheckedAt = now - LAG_CHECK_INTERVAL.toNanos();
+        this.unavailableUntil = now;
+    }
+
+    public String getServerUrl() {
+        return serverUrl;
+    }
+
+    public double getLagSeconds() {
+        return lagSeconds;
+    }
+
+    public boolean isReadable() {
+        long now = System.nanoTime();
+        if (now - lastWriteAt < stickinessNanos || now - unavailableUntil < 0) {
+            return false;
+        }
+        // Отстающая реплика перепроверяется не чаще LAG_CHECK_INTERVAL, до того читаем с primary
+        return !lagging || needsLagCheck();
+    }
+
+    public void markWrite() {
+        lastWriteAt = System.nanoTime();
+    }
+
+    public void markUnavailable() {
+        unavailableUntil = System.nanoTime() + RETRY_AFTER_FAILURE.toNanos();
+    }
+
+    public boolean needsLagCheck() {
+        return System.nanoTime() - lagCheckedAt >= LAG_CHECK_INTERVAL.toNanos();
+    }
+
+    // Возвращает true, если отставание в пределах нормы и соединение можно использовать для чтения
+    public boolean checkLag(Connection replica) throws SQLException {
+        try (PreparedStatement stmt = replica.prepareStatement(LAG_QUERY);
+             ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            lagSeconds = rs.getDouble(1);
+        }
+        lagging = lagSeconds * 1e9 > maxLagNanos;
+        lagCheckedAt = System.nanoTime();
+        return !lagging;
+    }
+}
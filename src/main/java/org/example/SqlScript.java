@@ -0,0 +1,154 @@
+package org.example;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+public final class SqlScript {
+    private final String name;
+    private final String text;
+    private final List<String> statements;
+
+    public SqlScript(String name, String text) {
+        this.name = name;
+        this.text = text;
+        this.statements = split(text);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getStatements() {
+        return statements;
+    }
+
+    public String checksum() {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Делит скрипт на команды по ';' вне строк, идентификаторов в кавычках, комментариев и $tag$-блоков.
+    // Комментарии верхнего уровня отбрасываются, внутри тел функций остаются как есть.
+    static List<String> split(String script) {
+        List<String> result = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int length = script.length();
+        int i = 0;
+        while (i < length) {
+            char c = script.charAt(i);
+            char next = i + 1 < length ? script.charAt(i + 1) : '\0';
+
+            if (c == '-' && next == '-') {
+                int end = script.indexOf('\n', i);
+                i = end < 0 ? length : end;
+            } else if (c == '/' && next == '*') {
+                i = skipBlockComment(script, i);
+                current.append(' ');
+            } else if (c == '\'') {
+                boolean escapes = i > 0 && (script.charAt(i - 1) == 'E' || script.charAt(i - 1) == 'e')
+                        && (i < 2 || !isIdentifierChar(script.charAt(i - 2)));
+                int end = skipQuoted(script, i, '\'', escapes);
+                current.append(script, i, end);
+                i = end;
+            } else if (c == '"') {
+                int end = skipQuoted(script, i, '"', false);
+                current.append(script, i, end);
+                i = end;
+            } else if (c == '$' && (i == 0 || !isIdentifierChar(script.charAt(i - 1)))) {
+                String tag = dollarTag(script, i);
+                if (tag == null) {
+                    current.append(c);
+                    i++;
+                } else {
+                    int close = script.indexOf(tag, i + tag.length());
+                    if (close < 0) {
+                        throw new IllegalArgumentException("Незакрытый блок " + tag + " в SQL-скрипте");
+                    }
+                    int end = close + tag.length();
+                    current.append(script, i, end);
+                    i = end;
+                }
+            } else if (c == ';') {
+                addStatement(result, current);
+                i++;
+            } else {
+                current.append(c);
+                i++;
+            }
+        }
+        addStatement(result, current);
+        return result;
+    }
+
+    private static void addStatement(List<String> result, StringBuilder current) {
+        String statement = current.toString().trim();
+        if (!statement.isEmpty()) {
+            result.add(statement);
+        }
+        current.setLength(0);
+    }
+
+    private static int skipBlockComment(String script, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < script.length() - 1) {
+            if (script.charAt(i) == '/' && script.charAt(i + 1) == '*') {
+                depth++;
+                i += 2;
+            } else if (script.charAt(i) == '*' && script.charAt(i + 1) == '/') {
+                depth--;
+                i += 2;
+                if (depth == 0) {
+                    return i;
+                }
+            } else {
+                i++;
+            }
+        }
+        throw new IllegalArgumentException("Незакрытый комментарий /* в SQL-скрипте");
+    }
+
+    private static int skipQuoted(String script, int start, char quote, boolean backslashEscapes) {
+        int i = start + 1;
+        while (i < script.length()) {
+            char c = script.charAt(i);
+            if (backslashEscapes && c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                if (i + 1 < script.length() && script.charAt(i + 1) == quote) {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                i++;
+            }
+        }
+        throw new IllegalArgumentException("Незакрытая кавычка " + quote + " в SQL-скрипте");
+    }
+
+    private static String dollarTag(String script, int start) {
+        int i = start + 1;
+        while (i < script.length() && script.charAt(i) != '$') {
+            char c = script.charAt(i);
+            boolean valid = i == start + 1 ? Character.isLetter(c) || c == '_' : isIdentifierChar(c);
+            if (!valid) {
+                return null;
+            }
+            i++;
+        }
+        return i < script.length() ? script.substring(start, i + 1) : null;
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+}
@@ -0,0 +1,115 @@
+package org.example;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+public final class SqlScriptRunner {
+    static final String CHECKSUM_TABLE = "car_rental_script_checksums";
+    private static final String UNDEFINED_TABLE = "42P01";
+
+    private SqlScriptRunner() {
+    }
+
+    public static String appliedChecksum(Connection conn, String scriptName) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT checksum FROM " + CHECKSUM_TABLE + " WHERE name = ?")) {
+            stmt.setString(1, scriptName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        } catch (SQLException e) {
+            if (UNDEFINED_TABLE.equals(e.getSQLState())) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    // Контрольная сумма внутри транзакции: отсутствие таблицы проверяется заранее,
+    // потому что ошибка запроса прервала бы всю транзакцию
+    private static String lockedChecksum(Connection conn, String scriptName) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT to_regclass(?) IS NOT NULL")) {
+            stmt.setString(1, CHECKSUM_TABLE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next() || !rs.getBoolean(1)) {
+                    return null;
+                }
+            }
+        }
+        return appliedChecksum(conn, scriptName);
+    }
+
+    // Возвращает true, если скрипт изменился и был применён; неизменённый скрипт стоит одного запроса.
+    // Сумма считается по скрипту целиком: при изменении одной процедуры применяется весь скрипт,
+    // что безопасно, потому что все его команды идемпотентны (CREATE OR REPLACE, IF NOT EXISTS).
+    public static boolean runIfChanged(Connection conn, SqlScript script) throws SQLException {
+        String checksum = script.checksum();
+        if (checksum.equals(appliedChecksum(conn, script.getName()))) {
+            return false;
+        }
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            try (PreparedStatement lock = conn.prepareStatement("SELECT pg_advisory_xact_lock(hashtext(?))")) {
+                lock.setString(1, CHECKSUM_TABLE + ":" + script.getName());
+                lock.execute();
+            }
+            // Пока ждали блокировку, скрипт мог применить параллельно стартовавший клиент
+            if (checksum.equals(lockedChecksum(conn, script.getName()))) {
+                conn.commit();
+                return false;
+            }
+
+            List<String> statements = script.getStatements();
+            try (Statement stmt = conn.createStatement()) {
+                for (String sql : statements) {
+                    stmt.addBatch(sql);
+                }
+                stmt.addBatch("CREATE TABLE IF NOT EXISTS " + CHECKSUM_TABLE + " ("
+                        + "name TEXT PRIMARY KEY, checksum TEXT NOT NULL, applied_at TIMESTAMPTZ NOT NULL DEFAULT now())");
+                stmt.executeBatch();
+            } catch (BatchUpdateException e) {
+                int failed = failedIndex(e.getUpdateCounts());
+                if (failed < 0 || failed >= statements.size()) {
+                    throw e;
+                }
+                // Сообщение сервера лежит в следующем исключении, сам BatchUpdateException говорит лишь о номере команды
+                SQLException cause = e.getNextException() != null ? e.getNextException() : e;
+                throw new SQLException("Ошибка в скрипте " + script.getName() + ": " + cause.getMessage()
+                        + "\nКоманда:\n" + statements.get(failed), cause.getSQLState(), e);
+            }
+
+            try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO " + CHECKSUM_TABLE
+                    + " (name, checksum) VALUES (?, ?) "
+                    + "ON CONFLICT (name) DO UPDATE SET checksum = EXCLUDED.checksum, applied_at = now()")) {
+                stmt.setString(1, script.getName());
+                stmt.setString(2, checksum);
+                stmt.executeUpdate();
+            }
+            conn.commit();
+            return true;
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static int failedIndex(int[] updateCounts) {
+        if (updateCounts == null) {
+            return -1;
+        }
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+                return i;
+            }
+        }
+        return updateCounts.length;
+    }
+}
@@ -0,0 +1,113 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+// Автодополнение по маркам и моделям. Индексы загружаются один раз из сводок вместе с курсором журнала,
+// дальше вставки, изменения и удаления применяются к ним дельтами журнала в памяти, без перечитывания сводок.
+// Полная загрузка повторяется только после сброса журнала (TRUNCATE, отсоединение секции, обрезка).
+public class SuggestionIndex {
+    private static final int MAX_BRAND_SUGGESTIONS = 3;
+
+    public enum Kind { BRAND, MODEL }
+
+    public record Suggestion(Kind kind, String value) {
+    }
+
+    public record Baseline(PrefixIndex brands, PrefixIndex models, String cursor) {
+    }
+
+    private final AsyncDatabase async;
+    private final Consumer<Throwable> errorHandler;
+    private final Consumer<Boolean> onUpdate;
+
+    // Всё состояние ниже читается и меняется только в EDT
+    private String database;
+    private PrefixIndex brands = PrefixIndex.empty();
+    private PrefixIndex models = PrefixIndex.empty();
+    private String cursor;
+    private int generation = 0;
+
+    // onUpdate получает true после полной загрузки и false после поправки дельтой
+    public SuggestionIndex(AsyncDatabase async, Consumer<Throwable> errorHandler, Consumer<Boolean> onUpdate) {
+        this.async = async;
+        this.errorHandler = errorHandler;
+        this.onUpdate = onUpdate;
+    }
+
+    // Загрузка при первом обращении и после смены текущей базы; в остальное время ничего не стоит
+    public void ensureLoaded() {
+        String target = async.getDatabase().getTargetDatabase();
+        if (target == null || target.equals(database)) {
+            return;
+        }
+        database = target;
+        brands = PrefixIndex.empty();
+        models = PrefixIndex.empty();
+        cursor = null;
+        reload(async.coalesce("suggestions:baseline:" + target, Database::loadSuggestionBaseline));
+    }
+
+    public void syncChanges() {
+        if (database == null) {
+            return;
+        }
+        if (cursor == null) {
+            reload(async.submit(Database::loadSuggestionBaseline));
+            return;
+        }
+        String since = cursor;
+        // Тот же ключ, что у CarTableModel: при общем курсоре дельта читается один раз
+        AsyncDatabase.onEdt(async.coalesce("cars:delta:" + since, db -> db.fetchChangesSince(since)), delta -> {
+            if (!since.equals(cursor)) {
+                return;
+            }
+            if (delta.reset() || delta.modelCounts() == null) {
+                cursor = null;
+                reload(async.submit(Database::loadSuggestionBaseline));
+                return;
+            }
+            cursor = delta.cursor();
+            if (delta.brandCounts().isEmpty() && delta.modelCounts().isEmpty()) {
+                return;
+            }
+            brands = brands.adjust(delta.brandCounts());
+            models = models.adjust(delta.modelCounts());
+            onUpdate.accept(false);
+        }, errorHandler);
+    }
+
+    // Марки идут первыми, но занимают не больше MAX_BRAND_SUGGESTIONS мест: их мало, а моделей много
+    public List<Suggestion> suggest(String prefix, int limit) {
+        List<Suggestion> result = new ArrayList<>(limit);
+        for (String brand : brands.suggest(prefix, Math.min(limit, MAX_BRAND_SUGGESTIONS))) {
+            result.add(new Suggestion(Kind.BRAND, brand));
+        }
+        for (String model : models.suggest(prefix, limit - result.size())) {
+            result.add(new Suggestion(Kind.MODEL, model));
+        }
+        return result;
+    }
+
+    private void reload(CompletableFuture<Baseline> baselineFuture) {
+        int requestGeneration = ++generation;
+        String target = database;
+        AsyncDatabase.onEdt(baselineFuture, baseline -> {
+            if (requestGeneration != generation || !target.equals(database)) {
+                return;
+            }
+            brands = baseline.brands();
+            models = baseline.models();
+            cursor = baseline.cursor();
+            onUpdate.accept(true);
+        }, ex -> {
+            // Неудачная загрузка повторится при следующем ensureLoaded
+            if (requestGeneration == generation) {
+                database = null;
+            }
+            errorHandler.accept(ex);
+        });
+    }
+}
@@ -0,0 +1,23 @@
+package org.example;
+
+import java.time.Duration;
+
+public record TenantResult<T>(String tenant, T value, Throwable error, Duration elapsed) {
+    public static <T> TenantResult<T> success(String tenant, T value, Duration elapsed) {
+        return new TenantResult<>(tenant, value, null, elapsed);
+    }
+
+    public static <T> TenantResult<T> failure(String tenant, Throwable error, Duration elapsed) {
+        return new TenantResult<>(tenant, null, error, elapsed);
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return tenant + ": " + (isSuccess() ? "OK" + (value != null ? " — " + value : "") : "ошибка — " + error.getMessage())
+                + " (" + elapsed.toMillis() + " мс)";
+    }
+}
@@ -0,0 +1,339 @@
+package org.example;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Групповая фиксация: вставки и обновления копятся в ограниченной очереди, а один писатель
+// применяет их пачками в одной транзакции, так что на пачку приходится один fsync, а не на строку.
+// Future каждой записи завершается после COMMIT её пачки. Каждая запись помнит базу, выбранную
+// при постановке, поэтому смена текущей базы не перенаправляет уже принятые записи.
+public class WriteBehindQueue implements AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 10_000;
+    public static final int DEFAULT_MAX_BATCH = 500;
+    public static final Duration DEFAULT_MAX_DELAY = Duration.ofMillis(10);
+    public static final Duration DEFAULT_OFFER_TIMEOUT = Duration.ofSeconds(5);
+    private static final long POLL_MILLIS = 100;
+
+    private static final String INSERT_SQL = "CALL sp_insert_car(?, ?, ?, ?)";
+    private static final String UPDATE_SQL = "CALL sp_update_car(?, ?, ?, ?, ?)";
+
+    // synchronousCommit = false: COMMIT не ждёт сброса WAL на диск, при сбое сервера
+    // могут потеряться последние доли секунды записей, но целостность базы сохраняется
+    public record Options(int capacity, int maxBatch, Duration maxDelay, Duration offerTimeout, boolean synchronousCommit) {
+        public Options {
+            if (capacity < 1 || maxBatch < 1) {
+                throw new IllegalArgumentException("Ёмкость очереди и размер пачки должны быть положительными");
+            }
+            if (maxDelay.isNegative() || offerTimeout.isNegative()) {
+                throw new IllegalArgumentException("Задержки не могут быть отрицательными");
+            }
+        }
+
+        public static Options defaults() {
+            return new Options(DEFAULT_CAPACITY, DEFAULT_MAX_BATCH, DEFAULT_MAX_DELAY, DEFAULT_OFFER_TIMEOUT, true);
+        }
+
+        public Options withSynchronousCommit(boolean value) {
+            return new Options(capacity, maxBatch, maxDelay, offerTimeout, value);
+        }
+    }
+
+    @FunctionalInterface
+    public interface ConnectionSource {
+        Connection get(String dbName) throws SQLException;
+    }
+
+    // id == 0 — вставка нового автомобиля, иначе обновление существующего;
+    // car == null — барьер flush, который завершается, когда записано всё принятое до него
+    private record Write(String dbName, Car car, CompletableFuture<Void> done) {
+        boolean isBarrier() {
+            return car == null;
+        }
+
+        boolean isInsert() {
+            return !car.isSaved();
+        }
+    }
+
+    private final ConnectionSource connections;
+    private final DatabaseMetrics metrics;
+    private final Consumer<String> onCommit;
+    private final Options options;
+    private final BlockingQueue<Write> queue;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public WriteBehindQueue(ConnectionSource connections, DatabaseMetrics metrics, Options options,
+                            Consumer<String> onCommit) {
+        this.connections = connections;
+        this.metrics = metrics;
+        this.options = options;
+        this.onCommit = onCommit;
+        this.queue = new ArrayBlockingQueue<>(options.capacity());
+        this.writer = Thread.ofVirtual().name("car-write-behind").start(this::run);
+    }
+
+    public CompletableFuture<Void> insertCar(String dbName, String brand, String model, int year, BigDecimal price) {
+        return submit(dbName, Car.unsaved(brand, model, year, price));
+    }
+
+    public CompletableFuture<Void> updateCar(String dbName, int id, String brand, String model, int year, BigDecimal price) {
+        return submit(dbName, new Car(id, brand, model, year, price));
+    }
+
+    public int pending() {
+        return queue.size();
+    }
+
+    // Обратное давление: при полной очереди вызывающий ждёт до offerTimeout, затем получает отказ
+    private CompletableFuture<Void> submit(String dbName, Car car) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (!running) {
+            done.completeExceptionally(new RejectedExecutionException("Очередь записи закрыта"));
+            return done;
+        }
+        try {
+            if (!queue.offer(new Write(dbName, car, done), options.offerTimeout().toNanos(), TimeUnit.NANOSECONDS)) {
+                done.completeExceptionally(new RejectedExecutionException(
+                        "Очередь записи переполнена: " + options.capacity() + " записей"));
+                return done;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            done.completeExceptionally(e);
+            return done;
+        }
+        rejectIfClosed();
+        return done;
+    }
+
+    // Барьер проходит через ту же очередь, что и записи, и писатель завершает его только после COMMIT
+    // всего, что было принято раньше. При полной очереди flush ждёт места, а не отказывает.
+    public void flush() {
+        CompletableFuture<Void> barrier = new CompletableFuture<>();
+        try {
+            while (!queue.offer(new Write(null, null, barrier), POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (!running) {
+                    // Закрытие дописывает очередь до конца: дождаться писателя и есть барьер
+                    writer.join();
+                    return;
+                }
+            }
+            rejectIfClosed();
+            barrier.exceptionally(error -> null).join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Писатель может выйти и не по close(): прерывание или ошибка вне SQL. Тогда взятые им, но не записанные
+    // записи и всё, что осталось в очереди, включая барьеры, получают отказ, иначе flush ждал бы вечно.
+    private void run() {
+        List<Write> batch = new ArrayList<>(options.maxBatch());
+        try {
+            drain(batch);
+        } finally {
+            running = false;
+            RejectedExecutionException stopped = new RejectedExecutionException("Писатель очереди записи остановлен");
+            batch.forEach(w -> w.done().completeExceptionally(stopped));
+            rejectLate();
+        }
+    }
+
+    private void drain(List<Write> batch) {
+        while (running || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + options.maxDelay().toNanos();
+                while (batch.size() < options.maxBatch()) {
+                    queue.drainTo(batch, options.maxBatch() - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= options.maxBatch() || remaining <= 0) {
+                        break;
+                    }
+                    Write next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (!batch.isEmpty()) {
+                apply(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    // Пачка делится на транзакции по базам и по барьерам с сохранением порядка записей
+    private void apply(List<Write> batch) {
+        List<Write> group = new ArrayList<>(batch.size());
+        for (Write w : batch) {
+            if (w.isBarrier()) {
+                applyGroup(group);
+                group.clear();
+                w.done().complete(null);
+                continue;
+            }
+            if (!group.isEmpty() && !group.get(0).dbName().equals(w.dbName())) {
+                applyGroup(group);
+                group.clear();
+            }
+            group.add(w);
+        }
+        applyGroup(group);
+    }
+
+    private void applyGroup(List<Write> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            write(batch);
+            batch.forEach(w -> w.done().complete(null));
+        } catch (SQLException e) {
+            if (batch.size() == 1 || !rolledBack(e)) {
+                batch.forEach(w -> w.done().completeExceptionally(e));
+                return;
+            }
+            // Одна плохая строка не должна ронять всю пачку: повторяем по одной, каждая в своей транзакции
+            for (Write w : batch) {
+                try {
+                    write(List.of(w));
+                    w.done().complete(null);
+                } catch (SQLException single) {
+                    w.done().completeExceptionally(single);
+                }
+            }
+        } catch (RuntimeException e) {
+            batch.forEach(w -> w.done().completeExceptionally(e));
+        }
+    }
+
+    // Ошибка до COMMIT означает, что транзакция откатилась. Если же упал сам COMMIT (например, оборвалось
+    // соединение), пачка могла и зафиксироваться, и повтор по одной вставил бы строки второй раз;
+    // повторяем только когда SQLState говорит об откате: нарушение ограничения или конфликт сериализации.
+    private static boolean rolledBack(SQLException e) {
+        if (!(e instanceof CommitFailedException)) {
+            return true;
+        }
+        String state = e.getSQLState();
+        return state != null && (state.startsWith("23") || state.startsWith("40"));
+    }
+
+    private static final class CommitFailedException extends SQLException {
+        CommitFailedException(SQLException cause) {
+            super(cause.getMessage(), cause.getSQLState(), cause);
+        }
+    }
+
+    // Вставки и обновления идут разными пакетами, но при каждой смене вида накопленный пакет отправляется,
+    // так что внутри транзакции записи применяются в порядке приёма
+    private void write(List<Write> batch) throws SQLException {
+        String dbName = batch.get(0).dbName();
+        metrics.record("writeBehindBatch", sample -> {
+            try (Connection conn = connections.get(dbName)) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement insert = conn.prepareStatement(INSERT_SQL);
+                     PreparedStatement update = conn.prepareStatement(UPDATE_SQL)) {
+                    if (!options.synchronousCommit()) {
+                        try (PreparedStatement stmt = conn.prepareStatement("SET LOCAL synchronous_commit = off")) {
+                            stmt.execute();
+                        }
+                    }
+                    PreparedStatement pending = null;
+                    for (Write w : batch) {
+                        Car car = w.car();
+                        PreparedStatement target = w.isInsert() ? insert : update;
+                        if (pending != null && pending != target) {
+                            pending.executeBatch();
+                        }
+                        pending = target;
+                        if (w.isInsert()) {
+                            insert.setString(1, car.brand());
+                            insert.setString(2, car.model());
+                            insert.setInt(3, car.year());
+                            insert.setBigDecimal(4, car.price());
+                            insert.addBatch();
+                        } else {
+                            update.setInt(1, car.id());
+                            update.setString(2, car.brand());
+                            update.setString(3, car.model());
+                            update.setInt(4, car.year());
+                            update.setBigDecimal(5, car.price());
+                            update.addBatch();
+                        }
+                        sample.row(car);
+                    }
+                    if (pending != null) {
+                        pending.executeBatch();
+                    }
+                    try {
+                        conn.commit();
+                    } catch (SQLException e) {
+                        throw new CommitFailedException(e);
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+            }
+            return null;
+        });
+        onCommit.accept(dbName);
+    }
+
+    // Новые записи больше не принимаются; уже принятые дописываются до возврата.
+    // Писатель не прерывается, чтобы не оборвать пачку посреди запроса, а замечает закрытие по таймауту опроса.
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        rejectLate();
+    }
+
+    // Запись, проскочившая в очередь одновременно с закрытием, получает отказ, а не виснет
+    private void rejectIfClosed() {
+        if (running) {
+            return;
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        rejectLate();
+    }
+
+    private void rejectLate() {
+        Write late;
+        while ((late = queue.poll()) != null) {
+            late.done().completeExceptionally(new RejectedExecutionException("Очередь записи закрыта"));
+        }
+    }
+}
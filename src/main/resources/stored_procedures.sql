@@ -1,5 +1,11 @@
 CREATE EXTENSION IF NOT EXISTS dblink;
 
+-- Реестр баз филиалов, созданных через sp_create_database
+CREATE TABLE IF NOT EXISTS car_rental_tenants (
+    name TEXT PRIMARY KEY,
+    created_at TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
 CREATE OR REPLACE PROCEDURE sp_create_database(dbname TEXT)
 LANGUAGE plpgsql
 AS $$
@@ -8,6 +14,7 @@ BEGIN
       'host=localhost dbname=postgres user=admin_role password=admin',
       'CREATE DATABASE ' || quote_ident(dbname)
     );
+    INSERT INTO car_rental_tenants (name) VALUES (dbname) ON CONFLICT (name) DO NOTHING;
 END;
 $$;
 
@@ -19,6 +26,148 @@ BEGIN
       'host=localhost dbname=postgres user=admin_role password=admin',
       'DROP DATABASE IF EXISTS ' || quote_ident(dbname)
     );
+    DELETE FROM car_rental_tenants WHERE name = dbname;
+END;
+$$;
+
+-- BEGIN CAR_RENTAL PROCEDURES
+
+CREATE OR REPLACE PROCEDURE sp_migrate_schema()
+LANGUAGE plpgsql
+AS $$
+DECLARE
+    v_version INTEGER;
+BEGIN
+    IF to_regclass('cars') IS NULL THEN
+        RETURN;
+    END IF;
+
+    PERFORM pg_advisory_xact_lock(hashtext('cars_schema_version'));
+    CREATE TABLE IF NOT EXISTS cars_schema_version (
+        version INTEGER PRIMARY KEY,
+        applied_at TIMESTAMPTZ NOT NULL DEFAULT now()
+    );
+    SELECT coalesce(max(version), 0) INTO v_version FROM cars_schema_version;
+
+    IF v_version < 1 THEN
+        CREATE INDEX IF NOT EXISTS cars_model_idx ON cars (model);
+        CREATE INDEX IF NOT EXISTS cars_brand_model_idx ON cars (brand, model);
+        CREATE INDEX IF NOT EXISTS cars_year_price_idx ON cars (year, price);
+        INSERT INTO cars_schema_version (version) VALUES (1);
+    END IF;
+
+    IF v_version < 2 THEN
+        CREATE TABLE IF NOT EXISTS cars_changes (
+            version BIGSERIAL PRIMARY KEY,
+            car_id INTEGER,
+            op CHAR(1) NOT NULL,
+            brand TEXT,
+            model TEXT,
+            year INTEGER,
+            price NUMERIC(10,2),
+            changed_at TIMESTAMPTZ NOT NULL DEFAULT clock_timestamp()
+        );
+        CREATE TABLE IF NOT EXISTS cars_changes_horizon (
+            pruned_upto BIGINT NOT NULL
+        );
+        INSERT INTO cars_changes_horizon (pruned_upto)
+        SELECT 0 WHERE NOT EXISTS (SELECT 1 FROM cars_changes_horizon);
+
+        DROP TRIGGER IF EXISTS cars_log_insert ON cars;
+        CREATE TRIGGER cars_log_insert AFTER INSERT ON cars
+            REFERENCING NEW TABLE AS new_rows
+            FOR EACH STATEMENT EXECUTE FUNCTION fn_cars_log_changes();
+        DROP TRIGGER IF EXISTS cars_log_update ON cars;
+        CREATE TRIGGER cars_log_update AFTER UPDATE ON cars
+            REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+            FOR EACH STATEMENT EXECUTE FUNCTION fn_cars_log_changes();
+        DROP TRIGGER IF EXISTS cars_log_delete ON cars;
+        CREATE TRIGGER cars_log_delete AFTER DELETE ON cars
+            REFERENCING OLD TABLE AS old_rows
+            FOR EACH STATEMENT EXECUTE FUNCTION fn_cars_log_changes();
+        DROP TRIGGER IF EXISTS cars_log_truncate ON cars;
+        CREATE TRIGGER cars_log_truncate AFTER TRUNCATE ON cars
+            FOR EACH STATEMENT EXECUTE FUNCTION fn_cars_log_changes();
+        INSERT INTO cars_schema_version (version) VALUES (2);
+    END IF;
+
+    IF v_version < 3 THEN
+        CREATE TABLE IF NOT EXISTS car_stats_brand (
+            brand TEXT PRIMARY KEY,
+            cars BIGINT NOT NULL,
+            price_sum NUMERIC NOT NULL,
+            price_min NUMERIC(10,2),
+            price_max NUMERIC(10,2)
+        );
+        CREATE TABLE IF NOT EXISTS car_stats_year (
+            year INTEGER PRIMARY KEY,
+            cars BIGINT NOT NULL,
+            price_sum NUMERIC NOT NULL,
+            price_min NUMERIC(10,2),
+            price_max NUMERIC(10,2)
+        );
+        -- Пересчёт min/max марки после удаления крайней цены идёт по индексу, а не по всей марке
+        CREATE INDEX IF NOT EXISTS cars_brand_price_idx ON cars (brand, price);
+
+        DROP TRIGGER IF EXISTS cars_stats_insert ON cars;
+        CREATE TRIGGER cars_stats_insert AFTER INSERT ON cars
+            REFERENCING NEW TABLE AS new_rows
+            FOR EACH STATEMENT EXECUTE FUNCTION fn_cars_update_stats();
+        DROP TRIGGER IF EXISTS cars_stats_update ON cars;
+        CREATE TRIGGER cars_stats_update AFTER UPDATE ON cars
+            REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+            FOR EACH STATEMENT EXECUTE FUNCTION fn_cars_update_stats();
+        DROP TRIGGER IF EXISTS cars_stats_delete ON cars;
+        CREATE TRIGGER cars_stats_delete AFTER DELETE ON cars
+            REFERENCING OLD TABLE AS old_rows
+            FOR EACH STATEMENT EXECUTE FUNCTION fn_cars_update_stats();
+        DROP TRIGGER IF EXISTS cars_stats_truncate ON cars;
+        CREATE TRIGGER cars_stats_truncate AFTER TRUNCATE ON cars
+            FOR EACH STATEMENT EXECUTE FUNCTION fn_cars_update_stats();
+        CALL sp_refresh_car_stats();
+        INSERT INTO cars_schema_version (version) VALUES (3);
+    END IF;
+
+    IF v_version < 4 THEN
+        -- Сводка по моделям — источник индекса автодополнения: загружается за O(число моделей)
+        CREATE TABLE IF NOT EXISTS car_stats_model (
+            model TEXT PRIMARY KEY,
+            cars BIGINT NOT NULL,
+            price_sum NUMERIC NOT NULL,
+            price_min NUMERIC(10,2),
+            price_max NUMERIC(10,2)
+        );
+        CALL sp_refresh_car_stats();
+        INSERT INTO cars_schema_version (version) VALUES (4);
+    END IF;
+
+    IF v_version < 5 THEN
+        -- Курсор клиента — снимок pg_snapshot: новые изменения — те, чья транзакция не была видна
+        -- в прошлом снимке. Номер version выдаётся до COMMIT, поэтому по нему одному незакоммиченную
+        -- транзакцию не отличить от отката.
+        ALTER TABLE cars_changes ADD COLUMN IF NOT EXISTS xid xid8 NOT NULL DEFAULT pg_current_xact_id();
+        CREATE INDEX IF NOT EXISTS cars_changes_xid_idx ON cars_changes (xid);
+        -- Наибольший xid среди удалённых строк журнала; начальное значение покрывает всё, что удалялось раньше
+        ALTER TABLE cars_changes_horizon ADD COLUMN IF NOT EXISTS pruned_xid xid8;
+        UPDATE cars_changes_horizon SET pruned_xid = pg_current_xact_id() WHERE pruned_xid IS NULL;
+        INSERT INTO cars_schema_version (version) VALUES (5);
+    END IF;
+
+    IF v_version < 6 THEN
+        -- Порционное удаление ищет "model = ? AND id > ? ORDER BY id": по (model) каждой порции
+        -- приходится заново перебирать и сортировать уже пройденные строки модели, по (model, id)
+        -- порция начинается сразу с нужного id. Поиск по одной модели покрывает этот же индекс.
+        CREATE INDEX IF NOT EXISTS cars_model_id_idx ON cars (model, id);
+        DROP INDEX IF EXISTS cars_model_idx;
+        INSERT INTO cars_schema_version (version) VALUES (6);
+    END IF;
+
+    IF v_version < 7 THEN
+        -- Прежние марка и модель у строк U и D: по ним клиент поправляет частоты автодополнения
+        -- из дельты журнала, не перечитывая сводки
+        ALTER TABLE cars_changes ADD COLUMN IF NOT EXISTS old_brand TEXT, ADD COLUMN IF NOT EXISTS old_model TEXT;
+        INSERT INTO cars_schema_version (version) VALUES (7);
+    END IF;
 END;
 $$;
 
@@ -34,6 +183,256 @@ BEGIN
             year INTEGER NOT NULL,
             price NUMERIC(10,2) NOT NULL
         )';
+    CALL sp_migrate_schema();
+END;
+$$;
+
+-- Вариант cars, секционированный по году: секция на каждый год диапазона и секция по умолчанию для остальных.
+-- Первичный ключ секционированной таблицы обязан включать ключ секционирования, поэтому он (id, year).
+-- Уникальность одного id он НЕ гарантирует: строки с одним id и разными годами лежат в разных секциях
+-- (или в секции по умолчанию) и обе проходят проверку ключа, а глобального уникального индекса по id
+-- PostgreSQL для секционированных таблиц не строит. id из последовательности уникальны сами, явные id
+-- слияния защищает блокировка cars в CarUpserter. Запись напрямую в секцию (INSERT INTO cars_y2020 ...)
+-- или INSERT с явным id в обход CarUpserter может создать дубликат id, после чего обновление и удаление
+-- по id затронут обе строки, поэтому писать нужно только через cars и процедуры этого скрипта.
+CREATE OR REPLACE PROCEDURE sp_create_partitioned_table(p_from_year INTEGER, p_to_year INTEGER)
+LANGUAGE plpgsql
+AS $$
+BEGIN
+    IF to_regclass('cars') IS NULL THEN
+        CREATE TABLE cars (
+            id SERIAL,
+            brand TEXT NOT NULL,
+            model TEXT NOT NULL,
+            year INTEGER NOT NULL,
+            price NUMERIC(10,2) NOT NULL,
+            PRIMARY KEY (id, year)
+        ) PARTITION BY RANGE (year);
+        CREATE TABLE cars_default PARTITION OF cars DEFAULT;
+    ELSIF NOT EXISTS (SELECT 1 FROM pg_partitioned_table WHERE partrelid = 'cars'::regclass) THEN
+        RAISE EXCEPTION 'Таблица cars уже существует и не секционирована';
+    END IF;
+    FOR v_year IN p_from_year..p_to_year LOOP
+        CALL sp_add_year_partition(v_year);
+    END LOOP;
+    CALL sp_migrate_schema();
+END;
+$$;
+
+CREATE OR REPLACE PROCEDURE sp_add_year_partition(p_year INTEGER)
+LANGUAGE plpgsql
+AS $$
+DECLARE
+    v_name TEXT := 'cars_y' || p_year;
+BEGIN
+    IF to_regclass('cars_default') IS NULL THEN
+        RAISE EXCEPTION 'Таблица cars не секционирована по году';
+    END IF;
+    IF to_regclass(v_name) IS NOT NULL THEN
+        RETURN;
+    END IF;
+    IF NOT EXISTS (SELECT 1 FROM cars_default WHERE year = p_year) THEN
+        EXECUTE format('CREATE TABLE %I PARTITION OF cars FOR VALUES FROM (%s) TO (%s)', v_name, p_year, p_year + 1);
+        RETURN;
+    END IF;
+    -- Секцию нельзя создать, пока строки её года лежат в секции по умолчанию: переносим их.
+    -- Строки двигаются между секциями напрямую, мимо триггеров cars, ведь логически они не меняются.
+    ALTER TABLE cars DETACH PARTITION cars_default;
+    EXECUTE format('CREATE TABLE %I PARTITION OF cars FOR VALUES FROM (%s) TO (%s)', v_name, p_year, p_year + 1);
+    EXECUTE format('INSERT INTO %I SELECT * FROM cars_default WHERE year = %s', v_name, p_year);
+    DELETE FROM cars_default WHERE year = p_year;
+    ALTER TABLE cars ATTACH PARTITION cars_default DEFAULT;
+END;
+$$;
+
+-- Отсоединение секции года — операция над метаданными вместо массового DELETE.
+-- Строки уходят без триггеров, поэтому сводки поправляются по самой секции, а клиенты журнала
+-- получают событие сброса, как после TRUNCATE.
+CREATE OR REPLACE PROCEDURE sp_detach_year_partition(p_year INTEGER, p_drop BOOLEAN)
+LANGUAGE plpgsql
+AS $$
+DECLARE
+    v_name TEXT := 'cars_y' || p_year;
+    v_stats TEXT;
+    v_key TEXT;
+BEGIN
+    IF to_regclass(v_name) IS NULL THEN
+        RAISE EXCEPTION 'Секция % не найдена', v_name;
+    END IF;
+    EXECUTE format('ALTER TABLE cars DETACH PARTITION %I', v_name);
+
+    FOREACH v_stats IN ARRAY ARRAY['car_stats_brand', 'car_stats_year', 'car_stats_model'] LOOP
+        IF to_regclass(v_stats) IS NULL THEN
+            CONTINUE;
+        END IF;
+        v_key := substr(v_stats, length('car_stats_') + 1);
+        EXECUTE format(
+            'UPDATE %1$I s SET cars = s.cars - d.cars, price_sum = s.price_sum - d.price_sum '
+            'FROM (SELECT %2$I, count(*) AS cars, sum(price) AS price_sum FROM %3$I GROUP BY %2$I) d '
+            'WHERE s.%2$I = d.%2$I',
+            v_stats, v_key, v_name);
+        EXECUTE format(
+            'UPDATE %1$I s SET (price_min, price_max) = '
+            '(SELECT min(c.price), max(c.price) FROM cars c WHERE c.%2$I = s.%2$I) '
+            'WHERE EXISTS (SELECT 1 FROM %3$I o WHERE o.%2$I = s.%2$I '
+            'AND (o.price <= s.price_min OR o.price >= s.price_max))',
+            v_stats, v_key, v_name);
+        EXECUTE format('DELETE FROM %I WHERE cars = 0', v_stats);
+    END LOOP;
+
+    IF to_regclass('cars_changes') IS NOT NULL THEN
+        INSERT INTO cars_changes (car_id, op) VALUES (NULL, 'T');
+        PERFORM pg_notify('cars_changed', '');
+    END IF;
+    IF p_drop THEN
+        EXECUTE format('DROP TABLE %I', v_name);
+    END IF;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION sp_list_year_partitions()
+RETURNS TABLE(year INTEGER)
+LANGUAGE sql
+AS $$
+    SELECT substr(c.relname, length('cars_y') + 1)::INTEGER
+    FROM pg_inherits i
+    JOIN pg_class c ON c.oid = i.inhrelid
+    WHERE i.inhparent = to_regclass('cars') AND c.relname ~ '^cars_y[0-9]+$'
+    ORDER BY 1;
+$$;
+
+CREATE OR REPLACE PROCEDURE sp_create_model_trgm_index()
+LANGUAGE plpgsql
+AS $$
+BEGIN
+    CREATE EXTENSION IF NOT EXISTS pg_trgm;
+    CREATE INDEX IF NOT EXISTS cars_model_trgm_idx ON cars USING gin (model gin_trgm_ops);
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION fn_cars_log_changes()
+RETURNS TRIGGER
+LANGUAGE plpgsql
+AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO cars_changes (car_id, op, brand, model, year, price)
+        SELECT id, 'I', brand, model, year, price FROM new_rows ORDER BY id;
+    ELSIF TG_OP = 'UPDATE' THEN
+        INSERT INTO cars_changes (car_id, op, old_brand, old_model)
+        SELECT o.id, 'D', o.brand, o.model FROM old_rows o WHERE NOT EXISTS (SELECT 1 FROM new_rows n WHERE n.id = o.id);
+        INSERT INTO cars_changes (car_id, op, brand, model, year, price, old_brand, old_model)
+        SELECT n.id, CASE WHEN o.id IS NULL THEN 'I' ELSE 'U' END,
+               n.brand, n.model, n.year, n.price, o.brand, o.model
+        FROM new_rows n LEFT JOIN old_rows o ON o.id = n.id ORDER BY n.id;
+    ELSIF TG_OP = 'DELETE' THEN
+        INSERT INTO cars_changes (car_id, op, old_brand, old_model)
+        SELECT id, 'D', brand, model FROM old_rows ORDER BY id;
+    ELSE
+        INSERT INTO cars_changes (car_id, op) VALUES (NULL, 'T');
+    END IF;
+    -- Одинаковые уведомления в одной транзакции PostgreSQL схлопывает в одно
+    PERFORM pg_notify('cars_changed', '');
+    RETURN NULL;
+END;
+$$;
+
+-- Сводки по марке, году и модели обновляются на дельту изменённых строк, без чтения всей таблицы.
+-- Число и сумма цен точны всегда; min/max пересчитываются по индексу только для ключей,
+-- у которых ушла строка с крайней ценой.
+CREATE OR REPLACE FUNCTION fn_cars_update_stats()
+RETURNS TRIGGER
+LANGUAGE plpgsql
+AS $$
+DECLARE
+    v_delta TEXT;
+    v_stats TEXT;
+    v_key TEXT;
+BEGIN
+    IF TG_OP = 'TRUNCATE' THEN
+        DELETE FROM car_stats_brand;
+        DELETE FROM car_stats_year;
+        IF to_regclass('car_stats_model') IS NOT NULL THEN
+            DELETE FROM car_stats_model;
+        END IF;
+        RETURN NULL;
+    END IF;
+
+    v_delta := CASE TG_OP
+        WHEN 'INSERT' THEN 'SELECT brand, year, model, price, 1 AS sign FROM new_rows'
+        WHEN 'DELETE' THEN 'SELECT brand, year, model, price, -1 AS sign FROM old_rows'
+        ELSE 'SELECT brand, year, model, price, 1 AS sign FROM new_rows '
+             'UNION ALL SELECT brand, year, model, price, -1 FROM old_rows'
+    END;
+
+    FOREACH v_stats IN ARRAY ARRAY['car_stats_brand', 'car_stats_year', 'car_stats_model'] LOOP
+        -- Сводка из ещё не применённой миграции пропускается, её заполнит sp_refresh_car_stats
+        IF to_regclass(v_stats) IS NULL THEN
+            CONTINUE;
+        END IF;
+        v_key := substr(v_stats, length('car_stats_') + 1);
+        -- Ключи идут по порядку, чтобы параллельные транзакции блокировали строки сводки в одном порядке
+        EXECUTE format(
+            'INSERT INTO %1$I AS s (%2$I, cars, price_sum, price_min, price_max) '
+            'SELECT %2$I, sum(sign), sum(sign * price), min(price) FILTER (WHERE sign > 0), '
+            'max(price) FILTER (WHERE sign > 0) FROM (%3$s) d GROUP BY %2$I ORDER BY %2$I '
+            'ON CONFLICT (%2$I) DO UPDATE SET cars = s.cars + EXCLUDED.cars, '
+            'price_sum = s.price_sum + EXCLUDED.price_sum, '
+            'price_min = least(s.price_min, EXCLUDED.price_min), '
+            'price_max = greatest(s.price_max, EXCLUDED.price_max)',
+            v_stats, v_key, v_delta);
+        IF TG_OP <> 'INSERT' THEN
+            EXECUTE format(
+                'UPDATE %1$I s SET (price_min, price_max) = '
+                '(SELECT min(c.price), max(c.price) FROM cars c WHERE c.%2$I = s.%2$I) '
+                'WHERE EXISTS (SELECT 1 FROM old_rows o WHERE o.%2$I = s.%2$I '
+                'AND (o.price <= s.price_min OR o.price >= s.price_max))',
+                v_stats, v_key);
+            EXECUTE format('DELETE FROM %I WHERE cars = 0', v_stats);
+        END IF;
+    END LOOP;
+    RETURN NULL;
+END;
+$$;
+
+-- Полный пересчёт сводок; нужен при первой миграции и если min/max разошлись после гонки удалений
+CREATE OR REPLACE PROCEDURE sp_refresh_car_stats()
+LANGUAGE plpgsql
+AS $$
+BEGIN
+    LOCK TABLE cars IN SHARE MODE;
+    DELETE FROM car_stats_brand;
+    INSERT INTO car_stats_brand (brand, cars, price_sum, price_min, price_max)
+    SELECT brand, count(*), sum(price), min(price), max(price) FROM cars GROUP BY brand;
+    DELETE FROM car_stats_year;
+    INSERT INTO car_stats_year (year, cars, price_sum, price_min, price_max)
+    SELECT year, count(*), sum(price), min(price), max(price) FROM cars GROUP BY year;
+    IF to_regclass('car_stats_model') IS NOT NULL THEN
+        DELETE FROM car_stats_model;
+        INSERT INTO car_stats_model (model, cars, price_sum, price_min, price_max)
+        SELECT model, count(*), sum(price), min(price), max(price) FROM cars GROUP BY model;
+    END IF;
+END;
+$$;
+
+CREATE OR REPLACE PROCEDURE sp_prune_car_changes(p_keep INTERVAL)
+LANGUAGE plpgsql
+AS $$
+DECLARE
+    v_upto BIGINT;
+    v_xid xid8;
+BEGIN
+    SELECT max(version) INTO v_upto FROM cars_changes WHERE changed_at < now() - p_keep;
+    IF v_upto IS NOT NULL THEN
+        WITH pruned AS (
+            DELETE FROM cars_changes WHERE version <= v_upto RETURNING xid
+        )
+        -- Агрегаты min/max для xid8 есть не во всех версиях, сортировка есть везде
+        SELECT xid INTO v_xid FROM pruned ORDER BY xid DESC LIMIT 1;
+        UPDATE cars_changes_horizon
+        SET pruned_upto = greatest(pruned_upto, v_upto),
+            pruned_xid = greatest(pruned_xid, v_xid);
+    END IF;
 END;
 $$;
 
@@ -70,7 +469,9 @@ CREATE OR REPLACE PROCEDURE sp_update_car(p_id INTEGER, p_brand TEXT, p_model TE
 LANGUAGE plpgsql
 AS $$
 BEGIN
-    UPDATE cars SET brand = p_brand, model = p_model, year = p_year, price = p_price WHERE id = p_id;
+    -- Совпадающая строка не переписывается: нет мёртвой версии, записи в WAL и журнал изменений
+    UPDATE cars SET brand = p_brand, model = p_model, year = p_year, price = p_price
+    WHERE id = p_id AND (brand, model, year, price) IS DISTINCT FROM (p_brand, p_model, p_year, p_price);
 END;
 $$;
 
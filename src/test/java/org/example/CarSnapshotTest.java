@@ -0,0 +1,120 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CarSnapshotTest {
+    private static CarSnapshot fleet() {
+        return CarSnapshot.builder()
+                .add(1, "Toyota", "Corolla", 2015, new BigDecimal("12000.00"))
+                .add(2, "Toyota", "Camry", 2019, new BigDecimal("25000.50"))
+                .add(3, "BMW", "X5", 2021, new BigDecimal("60000.00"))
+                .add(4, "Toyota", "Corolla", 2021, new BigDecimal("18000.00"))
+                .add(5, "Lada", "Vesta", 2019, new BigDecimal("9000.99"))
+                .build();
+    }
+
+    private static List<Integer> ids(List<Car> cars) {
+        return cars.stream().map(Car::id).toList();
+    }
+
+    @Test
+    void filtersByBrandModelYearAndPrice() {
+        CarSnapshot snapshot = fleet();
+        assertEquals(List.of(1, 2, 4), ids(snapshot.query(new CarQuery().brand("Toyota"))));
+        assertEquals(List.of(1, 4), ids(snapshot.query(new CarQuery().model("Corolla"))));
+        assertEquals(List.of(2, 3, 4, 5), ids(snapshot.query(new CarQuery().yearBetween(2019, null))));
+        assertEquals(List.of(2, 5), ids(snapshot.query(new CarQuery().yearBetween(2016, 2020))));
+        assertEquals(List.of(1, 4), ids(snapshot.query(new CarQuery().brand("Toyota")
+                .priceBetween(null, new BigDecimal("20000")))));
+    }
+
+    @Test
+    void priceBoundsAreInclusiveAndRoundedInward() {
+        CarSnapshot snapshot = fleet();
+        assertEquals(List.of(5), ids(snapshot.query(new CarQuery().priceBetween(new BigDecimal("9000.99"), new BigDecimal("9000.99")))));
+        // 9000.985 округляется вверх до 9000.99 для нижней границы и вниз до 9000.98 для верхней
+        assertEquals(List.of(5), ids(snapshot.query(new CarQuery().priceBetween(new BigDecimal("9000.985"), null)
+                .yearBetween(null, 2019).brand("Lada"))));
+        assertTrue(snapshot.query(new CarQuery().priceBetween(null, new BigDecimal("9000.985"))).isEmpty());
+    }
+
+    @Test
+    void unknownValuesMatchNothing() {
+        CarSnapshot snapshot = fleet();
+        assertTrue(snapshot.query(new CarQuery().brand("Volvo")).isEmpty());
+        assertTrue(snapshot.query(new CarQuery().brand("Toyota").model("X5")).isEmpty());
+    }
+
+    @Test
+    void sortsByEachKeyInBothDirections() {
+        CarSnapshot snapshot = fleet();
+        assertEquals(List.of(5, 4, 3, 2, 1), ids(snapshot.query(new CarQuery().sortBy(CarQuery.SortKey.ID, true))));
+        assertEquals(List.of(5, 1, 4, 2, 3), ids(snapshot.query(new CarQuery().sortBy(CarQuery.SortKey.PRICE, false))));
+        assertEquals(List.of(3, 2, 4, 1, 5), ids(snapshot.query(new CarQuery().sortBy(CarQuery.SortKey.PRICE, true))));
+        assertEquals(List.of(1, 2, 5, 3, 4), ids(snapshot.query(new CarQuery().sortBy(CarQuery.SortKey.YEAR, false))));
+        assertEquals(List.of(4, 3, 5, 2, 1), ids(snapshot.query(new CarQuery().sortBy(CarQuery.SortKey.YEAR, true))));
+    }
+
+    @Test
+    void limitsAfterSorting() {
+        CarSnapshot snapshot = fleet();
+        assertEquals(List.of(3, 2), ids(snapshot.query(new CarQuery().sortBy(CarQuery.SortKey.PRICE, true).limit(2))));
+        assertTrue(snapshot.query(new CarQuery().limit(0)).isEmpty());
+    }
+
+    @Test
+    void searchPagesByIdAndCountsFacetsOverAllMatches() {
+        CarSnapshot snapshot = fleet();
+        CarQuery query = new CarQuery().yearBetween(2019, null).limit(2);
+
+        FacetedSearchResult first = snapshot.search(query, null);
+        assertEquals(List.of(2, 3), ids(first.cars()));
+        assertEquals(4, first.total());
+        assertEquals(Map.of("Toyota", 2L, "BMW", 1L, "Lada", 1L), first.brandCounts());
+        assertEquals("Toyota", first.brandCounts().keySet().iterator().next());
+        assertEquals(Map.of(2015, 2L, 2020, 2L), first.yearBucketCounts());
+        assertEquals(new BigDecimal("9000.99"), first.minPrice());
+        assertEquals(new BigDecimal("60000.00"), first.maxPrice());
+
+        FacetedSearchResult second = snapshot.search(query, first.lastCar());
+        assertEquals(List.of(4, 5), ids(second.cars()));
+        assertEquals(4, second.total());
+        assertTrue(snapshot.search(query, second.lastCar()).cars().isEmpty());
+    }
+
+    @Test
+    void searchPagesInRequestedSortOrder() {
+        CarSnapshot snapshot = fleet();
+        CarQuery byPriceDesc = new CarQuery().sortBy(CarQuery.SortKey.PRICE, true).limit(2);
+        FacetedSearchResult first = snapshot.search(byPriceDesc, null);
+        assertEquals(List.of(3, 2), ids(first.cars()));
+        FacetedSearchResult second = snapshot.search(byPriceDesc, first.lastCar());
+        assertEquals(List.of(4, 1), ids(second.cars()));
+        assertEquals(List.of(5), ids(snapshot.search(byPriceDesc, second.lastCar()).cars()));
+
+        // Равные годы упорядочены по id в направлении сортировки, и страница не теряет и не повторяет строк
+        CarQuery byYear = new CarQuery().sortBy(CarQuery.SortKey.YEAR, false).limit(2);
+        FacetedSearchResult years = snapshot.search(byYear, null);
+        assertEquals(List.of(1, 2), ids(years.cars()));
+        assertEquals(List.of(5, 3), ids(snapshot.search(byYear, years.lastCar()).cars()));
+        CarQuery byYearDesc = new CarQuery().sortBy(CarQuery.SortKey.YEAR, true).limit(3);
+        assertEquals(List.of(4, 3, 5), ids(snapshot.search(byYearDesc, null).cars()));
+    }
+
+    @Test
+    void emptySearchHasNoPriceRange() {
+        FacetedSearchResult result = fleet().search(new CarQuery().brand("Volvo"), null);
+        assertEquals(0, result.total());
+        assertTrue(result.brandCounts().isEmpty());
+        assertNull(result.minPrice());
+        assertNull(result.maxPrice());
+    }
+}
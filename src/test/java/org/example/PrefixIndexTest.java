@@ -0,0 +1,62 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PrefixIndexTest {
+    private static PrefixIndex models() {
+        return PrefixIndex.of(Map.of("Corolla", 5L, "Camry", 3L, "Civic", 3L, "X5", 1L));
+    }
+
+    @Test
+    void suggestsByPrefixIgnoringCaseMostFrequentFirst() {
+        PrefixIndex index = models();
+        assertEquals(List.of("Corolla", "Camry", "Civic"), index.suggest("c", 10));
+        assertEquals(List.of("Corolla", "Camry"), index.suggest(" C ", 2));
+        assertEquals(List.of("X5"), index.suggest("x", 10));
+        assertTrue(index.suggest("", 10).isEmpty());
+        assertTrue(index.suggest("z", 10).isEmpty());
+    }
+
+    @Test
+    void adjustAddsNewValuesInOrder() {
+        PrefixIndex index = models().adjust(Map.of("Cayenne", 4L, "A4", 1L));
+        assertEquals(6, index.size());
+        assertEquals(List.of("Corolla", "Cayenne", "Camry", "Civic"), index.suggest("c", 10));
+        assertEquals(List.of("Cayenne", "Camry"), index.suggest("ca", 10));
+        assertEquals(List.of("A4"), index.suggest("a", 10));
+    }
+
+    @Test
+    void adjustChangesCountsAndDropsExhaustedValues() {
+        Map<String, Long> deltas = new HashMap<>();
+        deltas.put("Corolla", -5L);
+        deltas.put("Civic", 1L);
+        deltas.put("Missing", -1L);
+        PrefixIndex index = models().adjust(deltas);
+        assertEquals(3, index.size());
+        assertEquals(List.of("Civic", "Camry"), index.suggest("c", 10));
+        assertTrue(index.suggest("m", 10).isEmpty());
+    }
+
+    @Test
+    void adjustKeepsValuesThatDifferOnlyInCase() {
+        PrefixIndex index = PrefixIndex.of(Map.of("bmw", 1L)).adjust(Map.of("BMW", 2L));
+        assertEquals(List.of("BMW", "bmw"), index.suggest("b", 10));
+        assertEquals(List.of("bmw"), index.adjust(Map.of("BMW", -2L)).suggest("b", 10));
+    }
+
+    @Test
+    void emptyAdjustReturnsSameIndex() {
+        PrefixIndex index = models();
+        assertSame(index, index.adjust(Map.of()));
+        assertEquals(2, PrefixIndex.empty().adjust(Map.of("Golf", 1L, "Polo", 2L)).size());
+    }
+}
@@ -0,0 +1,92 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// Проверяет по pg_prepared_statements, что с настройками соединений Database повторяющийся запрос
+// действительно выполняется именованным серверным оператором и тот переживает возврат соединения в пул.
+// Без доступного PostgreSQL тест пропускается.
+class PrepareThresholdTest {
+    private static final String PROBE = "prepare_threshold_probe";
+    private static final String QUERY = "SELECT relname AS " + PROBE + " FROM pg_class WHERE relname = ?";
+    // Метка передаётся параметром, иначе текст этого запроса, став именованным оператором, совпал бы сам с собой
+    private static final String PREPARED_SQL = "SELECT count(*) FROM pg_prepared_statements "
+            + "WHERE NOT from_sql AND statement LIKE '%' || ? || '%'";
+
+    private ConnectionPool pool;
+    private int threshold;
+
+    @BeforeEach
+    void connect() {
+        Properties props = Database.connectionProperties(System.getProperty("bench.user", "postgres"),
+                System.getProperty("bench.password", "postgres"));
+        threshold = Integer.parseInt(props.getProperty("prepareThreshold"));
+        String url = System.getProperty("car_rental.primaryUrl", "jdbc:postgresql://localhost:5432/") + "postgres";
+        // Одно соединение: каждый заём возвращает то же физическое соединение, как тёплое соединение пула Database
+        pool = new ConnectionPool(url, props, 1, ConnectionPool.DEFAULT_IDLE_TIMEOUT, Duration.ofSeconds(2));
+        try (Connection conn = pool.getConnection()) {
+            assumeTrue(conn.isValid(2));
+        } catch (SQLException e) {
+            pool.close();
+            pool = null;
+            assumeTrue(false, "PostgreSQL недоступен: " + e.getMessage());
+        }
+    }
+
+    @AfterEach
+    void close() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Test
+    void repeatedQueryBecomesNamedServerStatement() throws SQLException {
+        assumeTrue(threshold > 0, "серверная подготовка выключена");
+        for (int i = 0; i < threshold - 1; i++) {
+            runProbe();
+        }
+        assertEquals(0, preparedCount(), "до порога запрос должен выполняться безымянным оператором");
+
+        runProbe();
+        assertEquals(1, preparedCount(), "после " + threshold + " выполнений ожидается именованный оператор");
+
+        // Дальнейшие выполнения переиспользуют тот же оператор, а не готовят новые
+        runProbe();
+        assertEquals(1, preparedCount());
+    }
+
+    // Как в Database: соединение берётся из пула на каждый запрос, оператор закрывается после выполнения
+    private void runProbe() throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(QUERY)) {
+            stmt.setString(1, "pg_class");
+            try (ResultSet rs = stmt.executeQuery()) {
+                assertTrue(rs.next());
+            }
+        }
+    }
+
+    private long preparedCount() throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(PREPARED_SQL)) {
+            stmt.setString(1, PROBE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+}
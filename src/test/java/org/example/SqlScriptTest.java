@@ -0,0 +1,87 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SqlScriptTest {
+    @Test
+    void splitsOnTopLevelSemicolons() {
+        assertEquals(List.of("SELECT 1", "SELECT 2"), SqlScript.split("SELECT 1;\n  SELECT 2;;\n"));
+        assertEquals(List.of("SELECT 3"), SqlScript.split("SELECT 3"));
+    }
+
+    @Test
+    void keepsAnonymousDollarBodyWhole() {
+        String body = "CREATE FUNCTION f() RETURNS void LANGUAGE plpgsql AS $$\nBEGIN\n    PERFORM 1;\nEND;\n$$";
+        assertEquals(List.of(body, "SELECT 1"), SqlScript.split(body + ";\nSELECT 1;"));
+    }
+
+    @Test
+    void keepsTaggedDollarBodyContainingPlainDollarQuotes() {
+        String body = "CREATE FUNCTION f() RETURNS text LANGUAGE plpgsql AS $fn$\n"
+                + "BEGIN\n    EXECUTE $$SELECT 1; SELECT 2$$;\n    RETURN 'x';\nEND;\n$fn$";
+        assertEquals(List.of(body, "SELECT 1"), SqlScript.split(body + ";\nSELECT 1;"));
+    }
+
+    @Test
+    void handlesTwoDollarQuotesOnOneLine() {
+        String first = "COMMENT ON TABLE t IS $$a;b$$";
+        String second = "SELECT $$c;d$$";
+        assertEquals(List.of(first, second), SqlScript.split(first + "; " + second + ";"));
+    }
+
+    @Test
+    void positionalParametersAndIdentifierDollarsAreNotTags() {
+        assertEquals(List.of("SELECT $1 + a$b", "SELECT 2"), SqlScript.split("SELECT $1 + a$b; SELECT 2;"));
+    }
+
+    @Test
+    void ignoresSemicolonsInQuotesAndIdentifiers() {
+        assertEquals(List.of("SELECT 'a;b', 'it''s;'", "SELECT \"odd;name\"\"x\" FROM t"),
+                SqlScript.split("SELECT 'a;b', 'it''s;'; SELECT \"odd;name\"\"x\" FROM t;"));
+    }
+
+    @Test
+    void escapeStringsAllowBackslashQuotes() {
+        assertEquals(List.of("SELECT E'a\\';b'", "SELECT e'\\\\'"),
+                SqlScript.split("SELECT E'a\\';b'; SELECT e'\\\\';"));
+        // В обычной строке обратная косая черта не экранирует кавычку
+        assertEquals(List.of("SELECT 'a\\'", "SELECT 1"), SqlScript.split("SELECT 'a\\'; SELECT 1;"));
+        // E в конце идентификатора не делает строку E-строкой
+        assertEquals(List.of("SELECT typE'\\'", "SELECT 1"), SqlScript.split("SELECT typE'\\'; SELECT 1;"));
+    }
+
+    @Test
+    void dropsTopLevelCommentsIncludingNestedBlocks() {
+        assertEquals(List.of("SELECT 1", "SELECT 2"),
+                SqlScript.split("-- first; still comment\nSELECT 1; /* outer /* inner; */ still; */ SELECT 2;"));
+        // Комментарий заменяется пробелом, чтобы не склеить соседние лексемы
+        assertEquals(List.of("SELECT 1"), SqlScript.split("SELECT/* a;b */1;"));
+    }
+
+    @Test
+    void keepsCommentsInsideFunctionBodies() {
+        String body = "CREATE FUNCTION f() RETURNS int LANGUAGE sql AS $$ -- count;\nSELECT 1 /* ; */ $$";
+        assertEquals(List.of(body), SqlScript.split(body + ";"));
+    }
+
+    @Test
+    void rejectsUnterminatedConstructs() {
+        assertThrows(IllegalArgumentException.class, () -> SqlScript.split("SELECT 'open"));
+        assertThrows(IllegalArgumentException.class, () -> SqlScript.split("SELECT \"open"));
+        assertThrows(IllegalArgumentException.class, () -> SqlScript.split("SELECT $x$ open"));
+        assertThrows(IllegalArgumentException.class, () -> SqlScript.split("SELECT /* /* */ 1"));
+    }
+
+    @Test
+    void checksumTracksScriptText() {
+        SqlScript script = new SqlScript("procs", "SELECT 1;");
+        assertEquals(script.checksum(), new SqlScript("other", "SELECT 1;").checksum());
+        assertNotEquals(script.checksum(), new SqlScript("procs", "SELECT 2;").checksum());
+    }
+}